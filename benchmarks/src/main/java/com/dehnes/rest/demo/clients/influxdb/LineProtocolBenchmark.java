@@ -0,0 +1,60 @@
+package com.dehnes.rest.demo.clients.influxdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the points written to InfluxDB. Uses the encoder directly, {@link InfluxDBConnector#newPoint(String)}
+ * only adds the thread local lookup but would start the writer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineProtocolBenchmark {
+
+    private final LineProtocolEncoder encoder = new LineProtocolEncoder();
+    private int counter;
+
+    /**
+     * The point of a ChipCap2 sensor.
+     */
+    @Benchmark
+    public int sensorPoint() {
+        counter = (counter + 1) & 0xFF;
+        return encoder.reset("sensor")
+                .tag("room", "hallway_down")
+                .fieldCenti("temperature", 2142 + counter)
+                .fieldCenti("humidity", 4375)
+                .field("counter", counter)
+                .field("light", 288)
+                .fieldCenti("battery_volt", 240)
+                .timestamp(1600000000000L + counter)
+                .length();
+    }
+
+    /**
+     * A point with a tag value which needs escaping.
+     */
+    @Benchmark
+    public int escapedPoint() {
+        counter = (counter + 1) & 0xFF;
+        return encoder.reset("sensor")
+                .tag("room", "tv room, upstairs")
+                .fieldCenti("temperature", -250 - counter)
+                .field("heater_on", true)
+                .timestamp(1600000000000L + counter)
+                .length();
+    }
+}
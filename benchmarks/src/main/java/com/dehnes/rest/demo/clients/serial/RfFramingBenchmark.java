@@ -0,0 +1,77 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing of the received byte stream as done by the reader thread of {@link SerialConnection}: chunks are
+ * appended to the {@link RfFrameRing}, the complete frames are parsed in place and read through the re-used
+ * {@link RfPacketView}. The stream is a mix of sensor and heater frames with the odd error code in between.
+ * Scores are per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RfFramingBenchmark {
+
+    private static final int FRAMES = 256;
+    // as read by SerialConnection
+    private static final int CHUNK = 256;
+
+    private byte[] stream;
+    private RfFrameRing ring;
+    private RfPacketView view;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            if (i % 50 == 0) {
+                out.write(1 + random.nextInt(255)); // error code
+            }
+            boolean heater = i % 10 == 0;
+            int msgLen = heater ? 5 : 9;
+            out.write(0);
+            out.write(1);
+            out.write(heater ? 27 : 2 + random.nextInt(13));
+            out.write(msgLen);
+            for (int j = 0; j < msgLen; j++) {
+                out.write(random.nextInt(256));
+            }
+        }
+        stream = out.toByteArray();
+        ring = new RfFrameRing(4096);
+        view = new RfPacketView().wrap(ring);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long frameAndRead() {
+        long sum = 0;
+        ring.clear();
+        for (int offset = 0; offset < stream.length; offset += CHUNK) {
+            ring.write(stream, offset, Math.min(CHUNK, stream.length - offset));
+            while (ring.next()) {
+                sum += view.getRemoteAddr() + view.u16be(0) + view.u16be(2);
+            }
+        }
+        return sum;
+    }
+}
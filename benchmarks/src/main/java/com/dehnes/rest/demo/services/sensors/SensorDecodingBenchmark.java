@@ -0,0 +1,67 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of received packets into their fields, per packet, by the decoders of the {@link SensorRegistry}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorDecodingBenchmark {
+
+    private SerialConnection.RfPacket chipCap2Packet;
+    private SerialConnection.RfPacket sht15Packet;
+    private SerialConnection.RfPacket adcPacket;
+    private SensorRegistry sensorRegistry;
+    private int[] values;
+
+    @Setup
+    public void setUp() {
+        // humidity 0x1C00 (43.75%), temperature 0x1800 (21.87 degrees), light, battery, counter
+        chipCap2Packet = new SerialConnection.RfPacket(2, new int[]{0x1C, 0x00, 0x18, 0x00, 0x01, 0x20, 0x01, 0xA0, 7});
+        // temperature 6200 (21.9 degrees), humidity 1500, heater on
+        sht15Packet = new SerialConnection.RfPacket(27, new int[]{0x18, 0x38, 0x05, 0xDC, 1});
+        // light 500, broken, door 800
+        adcPacket = new SerialConnection.RfPacket(24, new int[]{0xF4, 0x01, 0, 0, 0x20, 0x03});
+        sensorRegistry = new SensorRegistry();
+        values = new int[sensorRegistry.getMaxFieldCount()];
+    }
+
+    @Benchmark
+    public void chipCap2(Blackhole blackhole) {
+        blackhole.consume(decode(chipCap2Packet));
+    }
+
+    @Benchmark
+    public void sht15(Blackhole blackhole) {
+        blackhole.consume(decode(sht15Packet));
+    }
+
+    @Benchmark
+    public void adc(Blackhole blackhole) {
+        blackhole.consume(decode(adcPacket));
+    }
+
+    private int decode(SerialConnection.RfPacket p) {
+        // the lookup by address as done for every received packet
+        sensorRegistry.get(p.getRemoteAddr()).getDecoder().decode(p, values);
+        return values[0] + values[1];
+    }
+}
@@ -0,0 +1,42 @@
+package com.dehnes.rest.demo.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathToolsBenchmark {
+
+    private final Integer[] values = new Integer[1024];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // temperatures and humidities in hundredths, as passed in by the services
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(12000) - 4000;
+        }
+    }
+
+    @Benchmark
+    public String divideBy100() {
+        next = (next + 1) & (values.length - 1);
+        return MathTools.divideBy100(values[next]);
+    }
+}
@@ -0,0 +1,75 @@
+package com.dehnes.rest.server;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of typical request bodies by {@link JsonCodec#readObject}, streamed from the bytes, compared to building
+ * a String first and parsing it with org.json.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRequestBenchmark {
+
+    @Param({"action", "settings"})
+    public String body;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        String json;
+        switch (body) {
+            case "action":
+                json = "{\"action\":\"manual\",\"value\":2150}";
+                break;
+            case "settings":
+                json = settings();
+                break;
+            default:
+                throw new IllegalArgumentException(body);
+        }
+        bytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JSONObject jsonCodec() throws IOException {
+        return JsonCodec.readObject(new ByteArrayInputStream(bytes), null, 1024 * 1024);
+    }
+
+    @Benchmark
+    public JSONObject viaString() {
+        return new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static String settings() {
+        JSONObject settings = new JSONObject();
+        for (String room : new String[]{"bath", "storage", "out-west", "out-east", "tv_room", "hallway_down", "garage"}) {
+            settings.put(room, new JSONObject()
+                    .put("enabled", true)
+                    .put("target_temperature", 2150)
+                    .put("label", "Room " + room)
+                    .put("offset", -0.25D));
+        }
+        return settings.toString();
+    }
+}
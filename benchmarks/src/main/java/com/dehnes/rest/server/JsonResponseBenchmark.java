@@ -0,0 +1,96 @@
+package com.dehnes.rest.server;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of typical responses via {@link RestResponseUtils#setJsonResponse}, into a response which
+ * discards the bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonResponseBenchmark {
+
+    @Param({"message", "heater", "sensors"})
+    public String body;
+
+    private final ServletStubs.Response response = new ServletStubs.Response();
+    private Object value;
+
+    @Setup
+    public void setUp() {
+        switch (body) {
+            case "message":
+                value = "Heater switched on";
+                break;
+            case "heater":
+                value = heaterStatus();
+                break;
+            case "sensors":
+                value = sensorAggregates();
+                break;
+            default:
+                throw new IllegalArgumentException(body);
+        }
+    }
+
+    @Benchmark
+    public long setJsonResponse() {
+        RestResponseUtils.setJsonResponse(response, 200, value);
+        return response.getWritten();
+    }
+
+    /**
+     * Like HeatingControllerService.Status#toJson, temperatures in hundredths of a degree.
+     */
+    private static JSONObject heaterStatus() {
+        JSONObject result = new JSONObject();
+        result.put("mode", "AUTOMATIC");
+        result.put("target_temperature", 2150);
+        result.put("target_heater_status", "on");
+        result.put("failed_attempts", 0);
+        result.put("temperature", 2190);
+        result.put("heater_status", "on");
+        result.put("measured_at", 1600000000000L);
+        return result;
+    }
+
+    private static JSONArray sensorAggregates() {
+        JSONArray rooms = new JSONArray();
+        for (String room : new String[]{"bath", "storage", "out-west", "out-east", "tv_room", "hallway_down", "garage"}) {
+            JSONObject fields = new JSONObject();
+            for (String field : new String[]{"temperature", "humidity", "light", "battery_volt"}) {
+                JSONObject aggregate = new JSONObject();
+                aggregate.put("min", 19.5D);
+                aggregate.put("max", 22.25D);
+                aggregate.put("avg", 21.04D);
+                aggregate.put("count", 60);
+                aggregate.put("last", 21.5D);
+                aggregate.put("last_at", 1600000000000L);
+                fields.put(field, aggregate);
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("room", room);
+            entry.put("fields", fields);
+            rooms.put(entry);
+        }
+        return rooms;
+    }
+}
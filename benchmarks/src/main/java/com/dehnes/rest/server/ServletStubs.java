@@ -0,0 +1,117 @@
+package com.dehnes.rest.server;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.lang.reflect.Proxy;
+
+/**
+ * Minimal servlet request and response for the benchmarks. Unlike a {@link Proxy} they do not allocate per call,
+ * which would show up in the allocation rates. Anything not overridden fails.
+ */
+public class ServletStubs {
+
+    public static class Request extends HttpServletRequestWrapper {
+        private final String requestURI;
+
+        public Request(String requestURI) {
+            super(unsupported(HttpServletRequest.class));
+            this.requestURI = requestURI;
+        }
+
+        @Override
+        public String getRequestURI() {
+            return requestURI;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+    }
+
+    /**
+     * Discards the body, counting its bytes.
+     */
+    public static class Response extends HttpServletResponseWrapper {
+        private final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+        };
+
+        private boolean committed;
+        private int status;
+        private long written;
+
+        public Response() {
+            super(unsupported(HttpServletResponse.class));
+        }
+
+        public void commit() {
+            committed = true;
+        }
+
+        public long getWritten() {
+            return written;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        @Override
+        public void reset() {
+            committed = false;
+            status = 200;
+            written = 0;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setContentType(String type) {
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+    }
+
+    private static <T> T unsupported(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(
+                ServletStubs.class.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+}
@@ -0,0 +1,102 @@
+package com.dehnes.rest.server.route;
+
+import com.dehnes.rest.server.ServletStubs;
+import com.dehnes.rest.server.config.TriConsumer;
+import org.eclipse.jetty.http.HttpMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the routes for a request, with the route table of the app. {@link #routeTest()} is the scan over
+ * {@link Route#test(HttpMethod, String)}, {@link #trieDispatch()} what the server does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatchingBenchmark {
+
+    @Param({"/api/garage_door", "/api/sensors/bath", "/index.html"})
+    public String target;
+
+    private List<Route> routes;
+    private RouteTrie trie;
+    private ServletStubs.Request request;
+    private ServletStubs.Response response;
+    private int handled;
+
+    @Setup
+    public void setUp() {
+        // like the Routes of the app
+        routes = new RouteBuilder()
+                .when("^/api")
+                  .when("/garage_door")
+                    .get(handler())
+                    .when("/action")
+                      .post(handler())
+                    .done()
+                  .done()
+                  .when("/heater")
+                    .get(handler())
+                    .when("/action")
+                      .post(handler())
+                    .done()
+                  .done()
+                  .when("/events")
+                    .get(handler())
+                  .done()
+                  .when("/sensors")
+                    .get(handler())
+                    .when("/([^/]+)")
+                      .get(handler())
+                    .done()
+                  .done()
+                .done()
+                .when(".*").get(handler()).done()
+                .when(".*").any(handler()).done()
+                .build();
+        trie = new RouteTrie(routes);
+        request = new ServletStubs.Request(target);
+        response = new ServletStubs.Response();
+    }
+
+    @Benchmark
+    public int routeTest() {
+        for (Route route : routes) {
+            if (route.test(HttpMethod.GET, target)) {
+                return route.hashCode();
+            }
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public int trieDispatch() {
+        response.reset();
+        trie.dispatch(HttpMethod.GET, target, request, response);
+        return handled;
+    }
+
+    private TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> handler() {
+        return (req, resp, fields) -> {
+            handled += fields.size();
+            ((ServletStubs.Response) resp).commit();
+        };
+    }
+}
@@ -1,8 +1,10 @@
 package com.dehnes.rest.demo;
 
-import com.dehnes.rest.demo.services.ChipCap2SensorService;
+import com.dehnes.rest.demo.services.LiveUpdatesService;
+import com.dehnes.rest.demo.services.SensorService;
 import com.dehnes.rest.server.EmbeddedJetty;
 import com.dehnes.rest.server.config.AppContext;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
 import org.eclipse.jetty.server.Server;
 
 import java.time.Clock;
@@ -21,12 +23,15 @@ public class Main {
         config.addInstance(ExecutorService.class, Executors.newCachedThreadPool());
         config.addInstance(Clock.class, Clock.system(ZoneId.systemDefault()));
 
-        Server server = new EmbeddedJetty().start(
+        Server server = new EmbeddedJetty(config.getInstance(MetricsRegistry.class)).start(
                 PORT,
                 config.getInstance(Routes.class)
         );
-        config.getInstance(ChipCap2SensorService.class);
+        config.getInstance(SensorService.class);
+        config.getInstance(LiveUpdatesService.class);
         config.start();
+        // runs the @PreDestroy hooks, e.g. writes pending settings
+        Runtime.getRuntime().addShutdownHook(new Thread(config::stop, "shutdown"));
 
         server.join();
     }
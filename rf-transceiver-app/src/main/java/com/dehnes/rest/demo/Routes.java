@@ -1,6 +1,12 @@
 package com.dehnes.rest.demo;
 
 import com.dehnes.rest.demo.endpoints.*;
+import com.dehnes.rest.demo.services.GarageDoorService;
+import com.dehnes.rest.demo.services.HeatingControllerService;
+import com.dehnes.rest.demo.services.SensorStateStore;
+import com.dehnes.rest.server.CachingRestHandler;
+import com.dehnes.rest.server.SseBroadcaster;
+import com.dehnes.rest.server.metrics.MetricsEndpoint;
 import com.dehnes.rest.server.route.Route;
 import com.dehnes.rest.server.route.RouteBuilder;
 import com.dehnes.rest.server.route.RoutesFactory;
@@ -12,6 +18,11 @@ import java.util.List;
 
 public class Routes implements RoutesFactory {
 
+    // the caches are invalidated by state changes, the TTLs only bound how long anything is kept
+    private static final long GARAGE_DOOR_TTL_MS = 60_000;
+    private static final long HEATER_TTL_MS = 60_000;
+    private static final long SENSORS_TTL_MS = 5_000;
+
     private final List<Route> routes;
 
     public Routes(
@@ -20,26 +31,55 @@ public class Routes implements RoutesFactory {
             RedirectionEndpoint redirectionEndpoint,
             StaticFileFetcher staticFileFetcher,
             GetHeaterStatusEndpoint getHeaterStatusEndpoint,
-            HeaterControllerEndpoint heaterControllerEndpoint) {
+            HeaterControllerEndpoint heaterControllerEndpoint,
+            GetSensorAggregatesEndpoint getSensorAggregatesEndpoint,
+            GetLinkQualityEndpoint getLinkQualityEndpoint,
+            SseBroadcaster sseBroadcaster,
+            MetricsEndpoint metricsEndpoint,
+            HeatingControllerService heatingControllerService,
+            GarageDoorService garageDoorService,
+            SensorStateStore sensorStateStore) {
+
+        // the aggregates also change as the window slides, hence the short TTL
+        CachingRestHandler sensorAggregates = new CachingRestHandler(getSensorAggregatesEndpoint, SENSORS_TTL_MS, sensorStateStore::getVersion);
 
         routes = new RouteBuilder()
 
                 .when("^/api")
 
                   .when("/garage_door")
-                    .get(getGarageDoorEndpoint)
+                    .get(new CachingRestHandler(getGarageDoorEndpoint, GARAGE_DOOR_TTL_MS, garageDoorService::getVersion))
                     .when("/action")
                       .post(controlGarageDoorEndpoint)
                     .done()
                   .done()
 
                   .when("/heater")
-                    .get(getHeaterStatusEndpoint)
+                    .get(new CachingRestHandler(getHeaterStatusEndpoint, HEATER_TTL_MS, heatingControllerService::getVersion))
                     .when("/action")
                       .post(heaterControllerEndpoint)
                     .done()
                   .done()
 
+                  .when("/events")
+                    .get(sseBroadcaster)
+                  .done()
+
+                  .when("/sensors")
+                    .get(sensorAggregates)
+                    .when("/([^/]+)")
+                      .get(sensorAggregates)
+                    .done()
+                  .done()
+
+                  .when("/link_quality")
+                    .get(getLinkQualityEndpoint)
+                  .done()
+
+                .done()
+
+                .when("^/metrics")
+                  .get(metricsEndpoint)
                 .done()
 
                 .when(".*").get(staticFileFetcher).done()
@@ -1,21 +1,20 @@
 package com.dehnes.rest.demo.clients.influxdb;
 
-import org.apache.http.HttpResponse;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.client.fluent.Response;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.ContentType;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 public class InfluxDBConnector {
     private final static Logger logger = LoggerFactory.getLogger(InfluxDBConnector.class);
@@ -25,9 +24,45 @@ public class InfluxDBConnector {
 
     private volatile boolean dbCreated = false;
 
+    private final InfluxDBWriter writer;
+    private final ThreadLocal<LineProtocolEncoder> encoders = ThreadLocal.withInitial(LineProtocolEncoder::new);
+
+    public InfluxDBConnector(MetricsRegistry metricsRegistry) {
+        this.writer = new InfluxDBWriter(
+                baseUrl,
+                dbName,
+                Integer.parseInt(System.getProperty("INFLUXDB_BUFFER_SIZE", "10000")),
+                Integer.parseInt(System.getProperty("INFLUXDB_BATCH_SIZE", "500")),
+                Long.parseLong(System.getProperty("INFLUXDB_FLUSH_INTERVAL_MS", "1000")),
+                new InfluxDBSpool(
+                        new File(System.getProperty("INFLUXDB_SPOOL_DIR", "influxdb-spool")),
+                        1024 * 1024,
+                        Long.parseLong(System.getProperty("INFLUXDB_SPOOL_MAX_MB", "64")) * 1024 * 1024),
+                TimeUnit.SECONDS.toMillis(10),
+                metricsRegistry.histogram("influxdb_write_duration_seconds", "Time of the /write requests to InfluxDB"));
+
+        metricsRegistry.counter("influxdb_points_written_total", "Points written to InfluxDB", writer::getWritten);
+        metricsRegistry.counter("influxdb_points_failed_total", "Points whose write to InfluxDB failed", writer::getFailed);
+        metricsRegistry.counter("influxdb_points_rejected_total", "Points dropped because InfluxDB rejected them", writer::getRejected);
+        metricsRegistry.counter("influxdb_points_dropped_total", "Points dropped because the buffer was full", writer::getDropped);
+        metricsRegistry.counter("influxdb_points_spooled_total", "Points spooled to disk", writer::getSpooled);
+        metricsRegistry.gauge("influxdb_points_queued", "Points waiting in the buffer", writer::getQueued);
+        metricsRegistry.gauge("influxdb_spool_bytes", "Size of the spool on disk", writer::getSpoolSize);
+    }
 
-    public InfluxDBConnector() {
+    @PostConstruct
+    public void start() {
         createDb();
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        writer.stop();
+    }
+
+    public InfluxDBWriter getWriter() {
+        return writer;
     }
 
     private void createDb() {
@@ -47,107 +82,37 @@ public class InfluxDBConnector {
         }
     }
 
-    public static class KeyValue {
-        private final String key;
-        private final String value;
-
-        public KeyValue(String key, String value) {
-            this.key = key;
-            this.value = value;
-        }
+    /**
+     * Starts a new point using the encoder of the calling thread. Add tags, fields and the timestamp,
+     * then pass it to {@link #record(LineProtocolEncoder)} on the same thread.
+     */
+    public LineProtocolEncoder newPoint(String measurement) {
+        return encoders.get().reset(measurement);
     }
 
-    public void recordSensorData(
-            String name,
-            Optional<String> temp,
-            Optional<String> humidity,
-            Optional<String> counter,
-            Optional<String> light,
-            Optional<String> batVolt) {
-
-
-        List<KeyValue> values = new LinkedList<>();
-        if (temp.isPresent()) {
-            values.add(new KeyValue("temperature", temp.get()));
-        }
-        if (humidity.isPresent()) {
-            values.add(new KeyValue("humidity", humidity.get()));
-        }
-        if (counter.isPresent()) {
-            values.add(new KeyValue("counter", counter.get()));
-        }
-        if (light.isPresent()) {
-            values.add(new KeyValue("light", light.get()));
-        }
-        if (batVolt.isPresent()) {
-            values.add(new KeyValue("battery_volt", batVolt.get()));
-        }
-
-        if (values.size() > 0) {
-            recordSensorData("sensor", Optional.of(new KeyValue("room", name)), values);
-        }
+    /**
+     * Queues the point for writing, the actual write happens in the background. Points should be timestamped
+     * when created, so that they keep their time if they are spooled and replayed later.
+     */
+    public void record(LineProtocolEncoder point) {
+        logger.debug("About to send {}", point);
+        writer.offer(point);
     }
 
-    public void recordSensorData(String type, Optional<KeyValue> tag, List<KeyValue> values) {
-        try {
-
-            StringBuilder sb = new StringBuilder();
-            sb.append(type);
-
-            if (tag.isPresent()) {
-                sb.append(",").append(tag.get().key).append("=").append(tag.get().value);
-            }
-            sb.append(" ").append(values.stream().map(v -> v.key + "=" + v.value).collect(Collectors.joining(",")));
-
-            logger.debug("About to send {}", sb);
-
-            Response result = Request.Post(baseUrl + "/write?db=" + dbName)
-                    .bodyString(sb.toString(), ContentType.TEXT_PLAIN)
-                    .execute();
-
-            HttpResponse httpResponse = result.returnResponse();
-            if (httpResponse != null && httpResponse.getStatusLine() != null && httpResponse.getStatusLine().getStatusCode() > 299) {
-                throw new RuntimeException("Could not write to InFluxDb" + httpResponse);
-            }
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-    }
-
-    public JSONObject queryRaw(String type, Optional<KeyValue> targetTag, Optional<Long> timeMin, Optional<Long> timeMax, int limit) {
-        String query = "SELECT * FROM " + type + " WHERE 1 = 1";
-        if (targetTag.isPresent()) {
-            query += " AND " + targetTag.get().key + "=" + targetTag.get().value;
-        }
-        if (timeMin.isPresent()) {
-            query += " AND time > " + (timeMin.get() / 1000) + "s";
-        }
-        if (timeMax.isPresent()) {
-            query += " AND time < " + (timeMax.get() / 1000) + "s";
-        }
-        query += " order by time desc LIMIT " + limit;
-
+    /**
+     * Runs the InfluxQL query, timestamps in the result are epoch milliseconds.
+     */
+    public JSONObject query(String query) {
         try {
             URIBuilder b = new URIBuilder(baseUrl + "/query");
             b.addParameter("db", dbName);
+            b.addParameter("epoch", "ms");
             b.addParameter("q", query);
 
-            Response execute = Request.Get(b.build()).execute();
-            return new JSONObject(execute.returnContent().asString());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public JSONObject avgTempDuringLastHour(String room) {
-        try {
-            URIBuilder b = new URIBuilder(baseUrl + "/query");
-            b.addParameter("db", dbName);
-            b.addParameter("q", "SELECT mean(temperature) from sensor where room = '" + room + "' and time > " + (System.currentTimeMillis() - (3600 * 1000)) / 1000 + "s");
-
-            Response execute = Request.Get(b.build()).execute();
+            Response execute = Request.Get(b.build())
+                    .connectTimeout(5000)
+                    .socketTimeout(10000)
+                    .execute();
             return new JSONObject(execute.returnContent().asString());
         } catch (Exception e) {
             throw new RuntimeException(e);
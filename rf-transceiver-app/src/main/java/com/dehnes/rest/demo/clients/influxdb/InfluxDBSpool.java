@@ -0,0 +1,184 @@
+package com.dehnes.rest.demo.clients.influxdb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Append-only on-disk spool for points which could not be written to InfluxDB.
+ * <p>
+ * Points are appended as line protocol to segment files in the spool directory. A segment is closed once it
+ * exceeds segmentSize and the oldest segments are deleted if the spool grows beyond maxSize. Segments are
+ * replayed oldest first; a segment is only deleted once all its points were written or rejected. Since every point carries
+ * its own timestamp, replaying a segment twice after a partial failure is harmless.
+ */
+public class InfluxDBSpool {
+    private static final Logger logger = LoggerFactory.getLogger(InfluxDBSpool.class);
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".lp";
+
+    private final File dir;
+    private final long segmentSize;
+    private final long maxSize;
+    private final LinkedList<File> segments = new LinkedList<>();
+
+    private long nextSegmentNumber;
+    private OutputStream current;
+    private long currentSize;
+    private long totalSize;
+
+    public InfluxDBSpool(File dir, long segmentSize, long maxSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Could not create spool directory " + dir);
+        }
+
+        // pick up the segments left over from before a restart
+        File[] existing = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (existing != null) {
+            Arrays.sort(existing);
+            for (File f : existing) {
+                segments.add(f);
+                totalSize += f.length();
+                nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(f) + 1);
+            }
+        }
+        if (!segments.isEmpty()) {
+            logger.info("Found " + segments.size() + " spooled segments with " + totalSize + " bytes");
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    public synchronized void append(List<byte[]> lines) {
+        try {
+            if (current == null || currentSize >= segmentSize) {
+                rotate();
+            }
+            for (byte[] line : lines) {
+                current.write(line);
+                current.write('\n');
+                currentSize += line.length + 1;
+                totalSize += line.length + 1;
+            }
+            current.flush();
+        } catch (IOException e) {
+            logger.error("Could not spool " + lines.size() + " points", e);
+        }
+
+        while (totalSize > maxSize && segments.size() > 1) {
+            File oldest = segments.removeFirst();
+            totalSize -= oldest.length();
+            logger.warn("Spool exceeds " + maxSize + " bytes, deleting " + oldest);
+            delete(oldest);
+        }
+    }
+
+    /**
+     * Writes all spooled points in batches, oldest first.
+     *
+     * @param write returns false if the batch should be retried later, which stops the replay
+     * @return true if the spool was emptied, false if a write failed
+     */
+    public synchronized boolean replay(int batchSize, Predicate<List<byte[]>> write) {
+        closeCurrent();
+
+        while (!segments.isEmpty()) {
+            File segment = segments.getFirst();
+            List<byte[]> lines;
+            try {
+                lines = splitLines(Files.readAllBytes(segment.toPath()));
+            } catch (IOException e) {
+                logger.error("Could not read " + segment + ", skipping it", e);
+                lines = List.of();
+            }
+
+            for (int from = 0; from < lines.size(); from += batchSize) {
+                if (!write.test(lines.subList(from, Math.min(lines.size(), from + batchSize)))) {
+                    return false;
+                }
+            }
+
+            logger.info("Replayed " + lines.size() + " points from " + segment);
+            segments.removeFirst();
+            totalSize -= segment.length();
+            delete(segment);
+        }
+        totalSize = 0;
+        return true;
+    }
+
+    public synchronized void close() {
+        closeCurrent();
+    }
+
+    private void rotate() throws IOException {
+        closeCurrent();
+        File segment = new File(dir, String.format("%s%020d%s", PREFIX, nextSegmentNumber++, SUFFIX));
+        current = new FileOutputStream(segment, true);
+        currentSize = 0;
+        segments.add(segment);
+    }
+
+    private void closeCurrent() {
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+            current = null;
+        }
+    }
+
+    private static List<byte[]> splitLines(byte[] bytes) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                if (i > start) {
+                    lines.add(Arrays.copyOfRange(bytes, start, i));
+                }
+                start = i + 1;
+            }
+        }
+        if (start < bytes.length) {
+            lines.add(Arrays.copyOfRange(bytes, start, bytes.length));
+        }
+        return lines;
+    }
+
+    private static long segmentNumber(File f) {
+        String name = f.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void delete(File f) {
+        if (!f.delete()) {
+            logger.warn("Could not delete " + f);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.dehnes.rest.demo.clients.influxdb;
+
+import com.dehnes.rest.server.metrics.Histogram;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes line protocol points to InfluxDB in the background.
+ * <p>
+ * Points are buffered in a bounded queue and flushed as one multi-line /write request once batchSize points
+ * are collected or the oldest point waited maxAgeMs, whatever comes first. If the buffer is full new points
+ * are dropped, so that a slow InfluxDB never blocks the caller. All requests go through a single pooled
+ * keep-alive connection.
+ * <p>
+ * Batches InfluxDB rejects with a 4xx, e.g. for a malformed point or a field type conflict, would fail again on
+ * every retry. They are dropped and counted as rejected.
+ * <p>
+ * With a spool, batches which failed on an IO error or a 5xx are appended to disk instead of being lost. As long as the spool is not empty
+ * new batches are spooled as well, keeping them in order and sparing us a connect timeout per batch while
+ * InfluxDB is down. The flusher pings InfluxDB every pingIntervalMs and replays the spool once it answers.
+ */
+public class InfluxDBWriter {
+    private static final Logger logger = LoggerFactory.getLogger(InfluxDBWriter.class);
+
+    private final String baseUrl;
+    private final String writeUrl;
+    private final int batchSize;
+    private final long maxAgeMs;
+    private final InfluxDBSpool spool;
+    private final long pingIntervalMs;
+    private final ArrayBlockingQueue<byte[]> buffer;
+    private final CloseableHttpClient httpClient;
+    private final AtomicBoolean isStarted = new AtomicBoolean(false);
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Histogram writeDuration;
+
+    private volatile Thread flusherThread;
+
+    // local to the flusherThread
+    private final RequestBody body = new RequestBody();
+
+    public InfluxDBWriter(String baseUrl, String dbName, int capacity, int batchSize, long maxAgeMs, InfluxDBSpool spool, long pingIntervalMs) {
+        this(baseUrl, dbName, capacity, batchSize, maxAgeMs, spool, pingIntervalMs, new Histogram());
+    }
+
+    /**
+     * @param writeDuration records the time of every /write request, successful or not
+     */
+    public InfluxDBWriter(String baseUrl, String dbName, int capacity, int batchSize, long maxAgeMs, InfluxDBSpool spool, long pingIntervalMs, Histogram writeDuration) {
+        this.writeDuration = writeDuration;
+        this.baseUrl = baseUrl;
+        this.writeUrl = baseUrl + "/write?precision=ms&db=" + dbName;
+        this.batchSize = batchSize;
+        this.maxAgeMs = maxAgeMs;
+        this.spool = spool;
+        this.pingIntervalMs = pingIntervalMs;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(1);
+        connectionManager.setDefaultMaxPerRoute(1);
+        connectionManager.setValidateAfterInactivity(1000);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                // points carry their timestamp, so re-sending a write on a stale keep-alive connection is safe
+                .setRetryHandler(new DefaultHttpRequestRetryHandler(1, true))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(5000)
+                        .setSocketTimeout(10000)
+                        .build())
+                .build();
+    }
+
+    public synchronized void start() {
+        if (isStarted.getAndSet(true)) {
+            return;
+        }
+        flusherThread = new Thread(() -> {
+            try {
+                flushTask();
+            } catch (Exception e) {
+                logger.error("flusher thread failed permanently", e);
+            }
+        }, "influxDbFlusher");
+        flusherThread.start();
+    }
+
+    /**
+     * Stops the flusher thread after it has written the points still in the buffer.
+     */
+    public synchronized void stop() {
+        if (!isStarted.getAndSet(false)) {
+            return;
+        }
+        try {
+            flusherThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ignored) {
+        }
+        try {
+            httpClient.close();
+        } catch (IOException ignored) {
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    public boolean offer(String line) {
+        return offer(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean offer(LineProtocolEncoder point) {
+        return offer(Arrays.copyOf(point.array(), point.length()));
+    }
+
+    /**
+     * Queues a single line protocol point without blocking.
+     *
+     * @return false if the point was dropped because the buffer is full
+     */
+    public boolean offer(byte[] line) {
+        if (buffer.offer(line)) {
+            return true;
+        }
+        dropped.increment();
+        if (dropped.sum() % 1000 == 1) {
+            logger.warn("Buffer full, dropped " + dropped.sum() + " points so far");
+        }
+        return false;
+    }
+
+    public int getQueued() {
+        return buffer.size();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getSpooled() {
+        return spooled.sum();
+    }
+
+    public long getSpoolSize() {
+        return spool == null ? 0 : spool.getSize();
+    }
+
+    private void flushTask() {
+        List<byte[]> batch = new ArrayList<>(batchSize);
+        long nextPing = 0;
+
+        while (isStarted.get() || !buffer.isEmpty()) {
+            try {
+                byte[] first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+
+                    // collect until the batch is full or the first point got too old
+                    long deadline = System.currentTimeMillis() + maxAgeMs;
+                    while (batch.size() < batchSize) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        byte[] next = remaining > 0 && isStarted.get()
+                                ? buffer.poll(remaining, TimeUnit.MILLISECONDS)
+                                : buffer.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+
+            if (!batch.isEmpty()) {
+                if (spool != null && !spool.isEmpty()) {
+                    spool(batch);
+                } else if (write(batch) == WriteResult.FAILED) {
+                    failed.add(batch.size());
+                    if (spool != null) {
+                        spool(batch);
+                    }
+                }
+                batch.clear();
+            }
+
+            if (spool != null && !spool.isEmpty() && isStarted.get() && System.currentTimeMillis() >= nextPing) {
+                nextPing = System.currentTimeMillis() + pingIntervalMs;
+                if (ping()) {
+                    logger.info("InfluxDb is reachable, replaying " + spool.getSize() + " spooled bytes");
+                    // rejected batches are skipped, they would block the spool forever
+                    spool.replay(batchSize, lines -> write(lines) != WriteResult.FAILED);
+                }
+            }
+        }
+    }
+
+    private void spool(List<byte[]> batch) {
+        spool.append(batch);
+        spooled.add(batch.size());
+    }
+
+    private boolean ping() {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(baseUrl + "/ping"))) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode() < 300;
+        } catch (IOException e) {
+            logger.debug("Ping failed - {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private enum WriteResult {
+        WRITTEN,
+        // by InfluxDB, retrying will not help
+        REJECTED,
+        // worth retrying once InfluxDB is back
+        FAILED
+    }
+
+    /**
+     * Counts the points as written or rejected.
+     */
+    private WriteResult write(List<byte[]> lines) {
+        body.reset();
+        for (byte[] line : lines) {
+            if (body.size() > 0) {
+                body.write('\n');
+            }
+            body.write(line, 0, line.length);
+        }
+
+        HttpPost post = new HttpPost(writeUrl);
+        post.setEntity(body.toEntity());
+
+        long startNanos = System.nanoTime();
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            EntityUtils.consume(response.getEntity());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 400 && statusCode < 500) {
+                logger.error("InfluxDb rejected " + lines.size() + " points, dropping them - " + response.getStatusLine());
+                rejected.add(lines.size());
+                return WriteResult.REJECTED;
+            }
+            if (statusCode > 299) {
+                logger.warn("Could not write " + lines.size() + " points to InfluxDb - " + response.getStatusLine());
+                return WriteResult.FAILED;
+            }
+            logger.debug("Wrote {} points", lines.size());
+            written.add(lines.size());
+            return WriteResult.WRITTEN;
+        } catch (IOException e) {
+            logger.warn("Could not write " + lines.size() + " points to InfluxDb - " + e.getMessage());
+            return WriteResult.FAILED;
+        } finally {
+            writeDuration.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Re-usable buffer for the request body, exposing its content without a copy.
+     */
+    private static class RequestBody extends ByteArrayOutputStream {
+        RequestBody() {
+            super(64 * 1024);
+        }
+
+        ByteArrayEntity toEntity() {
+            return new ByteArrayEntity(buf, 0, count, ContentType.TEXT_PLAIN);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.dehnes.rest.demo.clients.influxdb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes a single InfluxDB line protocol point into a re-usable byte buffer:
+ * <pre>measurement,tag=value field=1.5,other=true 1600000000000</pre>
+ * Measurement, tag and field names as well as tag values are escaped as required by the line protocol.
+ * Numbers are written without going through Strings, {@link #fieldCenti(String, long)} writes fixed-point
+ * hundredths, e.g. 2134 as 21.34.
+ * <p>
+ * Not thread safe, meant to be re-used by one thread via {@link #reset(String)}.
+ */
+public class LineProtocolEncoder {
+
+    private byte[] buf = new byte[256];
+    private int length;
+    private boolean hasFields;
+
+    public LineProtocolEncoder reset(String measurement) {
+        length = 0;
+        hasFields = false;
+        writeEscaped(measurement, false);
+        return this;
+    }
+
+    public LineProtocolEncoder tag(String key, String value) {
+        if (hasFields) {
+            throw new IllegalStateException("Tags must come before fields");
+        }
+        writeByte(',');
+        writeEscaped(key, true);
+        writeByte('=');
+        writeEscaped(value, true);
+        return this;
+    }
+
+    /**
+     * Writes the value as float field, like all numeric fields we have in InfluxDB.
+     */
+    public LineProtocolEncoder field(String key, long value) {
+        startField(key);
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes centiValue / 100 with two decimals as float field.
+     */
+    public LineProtocolEncoder fieldCenti(String key, long centiValue) {
+        startField(key);
+        if (centiValue < 0) {
+            writeByte('-');
+            centiValue = -centiValue;
+        }
+        writeLong(centiValue / 100);
+        writeByte('.');
+        long fraction = centiValue % 100;
+        writeByte('0' + (int) (fraction / 10));
+        writeByte('0' + (int) (fraction % 10));
+        return this;
+    }
+
+    public LineProtocolEncoder field(String key, boolean value) {
+        startField(key);
+        if (value) {
+            writeAscii("true");
+        } else {
+            writeAscii("false");
+        }
+        return this;
+    }
+
+    /**
+     * Ends the point with its timestamp in milliseconds.
+     */
+    public LineProtocolEncoder timestamp(long epochMillis) {
+        if (!hasFields) {
+            throw new IllegalStateException("A point needs at least one field");
+        }
+        writeByte(' ');
+        writeLong(epochMillis);
+        return this;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void startField(String key) {
+        writeByte(hasFields ? ',' : ' ');
+        hasFields = true;
+        writeEscaped(key, true);
+        writeByte('=');
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void writeAscii(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Measurements escape commas and spaces, keys and tag values additionally equal signs.
+     */
+    private void writeEscaped(String s, boolean escapeEquals) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == ' ' || (escapeEquals && c == '=')) {
+                writeByte('\\');
+                writeByte(c);
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xF0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                writeByte(0x80 | (codePoint & 0x3F));
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buf[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + additional));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking transport to the transceiver based on a {@link SocketChannel} and a {@link Selector}.
+ * <p>
+ * Received bytes go straight into a {@link RfFrameRing} and frames are handed to the consumer while the
+ * bytes are still in the ring. Whenever the channel is readable it is drained completely, parsing frames
+ * between reads, so a burst of frames never fills up the ring.
+ */
+public class NioSerialTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NioSerialTransport.class);
+
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long WRITE_TIMEOUT_MS = 1000;
+
+    private final SocketAddress dst;
+    private final RfFrameRing ring;
+
+    private volatile Selector selector;
+    private volatile SocketChannel channel;
+
+    public NioSerialTransport(SocketAddress dst, RfFrameRing ring) {
+        this.dst = dst;
+        this.ring = ring;
+    }
+
+    public boolean isConnected() {
+        SocketChannel c = channel;
+        return c != null && c.isConnected();
+    }
+
+    /**
+     * Keeps (re)connecting to the transceiver and hands over received frames until isRunning returns false.
+     * Must be called by the reader thread only.
+     */
+    public void run(BooleanSupplier isRunning, Consumer<RfFrameRing> onFrame) {
+        while (isRunning.getAsBoolean()) { // keep trying to connect to the transceiver
+            // prevent tight loop
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException ignored) {
+            }
+
+            try (Selector sel = Selector.open(); SocketChannel ch = SocketChannel.open()) {
+                selector = sel;
+                if (!isRunning.getAsBoolean() || !connect(sel, ch)) {
+                    continue;
+                }
+                channel = ch;
+                ring.clear();
+                logger.info("Connected to " + dst);
+
+                SelectionKey key = ch.register(sel, SelectionKey.OP_READ);
+                while (isRunning.getAsBoolean()) { // keep reading packets while connected
+                    sel.select();
+                    sel.selectedKeys().clear();
+                    if (key.isValid() && key.isReadable() && !drain(ch, onFrame)) {
+                        logger.info("Connection closed by " + dst);
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                logger.info("Connection failed - " + e.getMessage(), e);
+            } finally {
+                channel = null;
+                selector = null;
+            }
+        }
+    }
+
+    /**
+     * Writes the frame from the calling thread. The socket buffer is practically never full for
+     * the few bytes we send, so a short bounded retry is sufficient instead of a write interest.
+     */
+    public boolean write(byte[] frame) {
+        SocketChannel ch = channel;
+        if (ch == null) {
+            return false;
+        }
+        ByteBuffer b = ByteBuffer.wrap(frame);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MS);
+        try {
+            while (b.hasRemaining()) {
+                if (ch.write(b) == 0) {
+                    if (System.nanoTime() > deadline) {
+                        logger.info("Timeout writing to " + dst);
+                        return false;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wakes up the reader thread, so that it can notice that it is asked to stop.
+     */
+    public void wakeup() {
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private boolean connect(Selector sel, SocketChannel ch) throws IOException {
+        ch.configureBlocking(false);
+        if (ch.connect(dst)) {
+            return true;
+        }
+        ch.register(sel, SelectionKey.OP_CONNECT);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            sel.select(Math.max(1, deadline - System.currentTimeMillis()));
+            Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey k = keys.next();
+                keys.remove();
+                if (k.isConnectable()) {
+                    try {
+                        if (ch.finishConnect()) {
+                            k.interestOps(0);
+                            return true;
+                        }
+                    } catch (IOException e) {
+                        logger.info("Could not connect - " + e.getMessage());
+                        return false;
+                    }
+                }
+            }
+        }
+        logger.info("Could not connect - timeout");
+        return false;
+    }
+
+    private boolean drain(SocketChannel ch, Consumer<RfFrameRing> onFrame) throws IOException {
+        int read;
+        while ((read = ring.readFrom(ch)) > 0) {
+            while (ring.next()) {
+                onFrame.accept(ring);
+            }
+        }
+        return read == 0;
+    }
+}
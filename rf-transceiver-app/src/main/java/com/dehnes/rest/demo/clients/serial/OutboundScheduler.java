@@ -0,0 +1,126 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Orders the pending outbound frames before they are written to the transceiver.
+ * <p>
+ * Each destination address belongs to a priority class and frames are sent strictly by class, FIFO within
+ * a class. A frame identical to one which is still pending for the same address is not sent twice - it
+ * completes together with the pending one. A frame sent with replacePending drops all frames still pending
+ * for its address; their futures are cancelled.
+ * <p>
+ * Only the priorities may be changed from any thread, everything else is owned by the writer thread.
+ */
+public class OutboundScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundScheduler.class);
+
+    public enum Priority {
+        INTERACTIVE,
+        NORMAL,
+        BACKGROUND
+    }
+
+    private final AtomicReferenceArray<Priority> priorities = new AtomicReferenceArray<>(256);
+    // indexed by the ordinal of the priority
+    private final List<ArrayDeque<SerialConnection.SendRequest>> queues = new ArrayList<>();
+    private int size;
+
+    public OutboundScheduler() {
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    public void setPriority(int remoteAddr, Priority priority) {
+        priorities.set(remoteAddr & 0xFF, priority);
+    }
+
+    public Priority getPriority(int remoteAddr) {
+        Priority priority = priorities.get(remoteAddr & 0xFF);
+        return priority == null ? Priority.NORMAL : priority;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void admit(SerialConnection.SendRequest request) {
+        int remoteAddr = request.getPacket().getRemoteAddr();
+
+        for (ArrayDeque<SerialConnection.SendRequest> queue : queues) {
+            Iterator<SerialConnection.SendRequest> it = queue.iterator();
+            while (it.hasNext()) {
+                SerialConnection.SendRequest pending = it.next();
+                if (pending.getPacket().getRemoteAddr() != remoteAddr) {
+                    continue;
+                }
+
+                if (request.isReplacePending()) {
+                    logger.debug("Replacing pending {} with {}", pending.getPacket(), request.getPacket());
+                    it.remove();
+                    size--;
+                    pending.getResult().cancel(false);
+                } else if (samePayload(pending.getPacket(), request.getPacket())) {
+                    logger.debug("Coalescing {} with pending request", request.getPacket());
+                    pending.getResult().whenComplete((r, e) -> {
+                        if (e != null) {
+                            request.getResult().completeExceptionally(e);
+                        } else {
+                            request.getResult().complete(r);
+                        }
+                    });
+                    return;
+                }
+            }
+        }
+
+        queues.get(getPriority(remoteAddr).ordinal()).addLast(request);
+        size++;
+    }
+
+    /**
+     * @return the next request to send or null if there is none
+     */
+    public SerialConnection.SendRequest poll() {
+        for (ArrayDeque<SerialConnection.SendRequest> queue : queues) {
+            SerialConnection.SendRequest request = queue.pollFirst();
+            if (request != null) {
+                size--;
+                return request;
+            }
+        }
+        return null;
+    }
+
+    public void drain(Consumer<SerialConnection.SendRequest> consumer) {
+        SerialConnection.SendRequest request;
+        while ((request = poll()) != null) {
+            consumer.accept(request);
+        }
+    }
+
+    private static boolean samePayload(SerialConnection.RfPacket a, SerialConnection.RfPacket b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            if (a.u8(i) != b.u8(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
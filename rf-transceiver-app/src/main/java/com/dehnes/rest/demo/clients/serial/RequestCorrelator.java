@@ -0,0 +1,203 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import com.dehnes.rest.server.metrics.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Matches replies to outstanding request packets.
+ * <p>
+ * At most one request per address is in flight, further ones queue up behind it, so that a reply can only
+ * belong to one request. A received packet is the reply if it comes from the address of the request in flight
+ * after the request was sent, and satisfies its reply predicate, i.e. has the type the command answers with. Each request has a deadline on
+ * the shared timer wheel, starting once the request was written, or once writing took longer than sendTimeoutMs,
+ * e.g. while the transceiver is disconnected. When it passes, the request is sent again right away with twice the
+ * time to answer, up to maxTimeoutMs, until the attempts are used up.
+ */
+public class RequestCorrelator {
+    private static final Logger logger = LoggerFactory.getLogger(RequestCorrelator.class);
+
+    private final Function<SerialConnection.RfPacket, CompletableFuture<Boolean>> sender;
+    private final TimerWheel timerWheel;
+    private final long maxTimeoutMs;
+    private final long sendTimeoutMs;
+    private final Counter attempts;
+    private final Counter unanswered;
+
+    // indexed by address, guarded by this
+    private final Exchange[] inFlight = new Exchange[256];
+    private final List<ArrayDeque<Exchange>> waiting = new ArrayList<>(Collections.nCopies(256, null));
+    private boolean closed;
+
+    public RequestCorrelator(Function<SerialConnection.RfPacket, CompletableFuture<Boolean>> sender, TimerWheel timerWheel, long maxTimeoutMs) {
+        this(sender, timerWheel, maxTimeoutMs, TimeUnit.SECONDS.toMillis(5), new Counter(), new Counter());
+    }
+
+    /**
+     * @param sendTimeoutMs how long writing a request may take before the time to answer starts anyway
+     * @param attempts      counts every time a request is sent, including the first one
+     * @param unanswered    counts the requests which got no reply at all
+     */
+    public RequestCorrelator(Function<SerialConnection.RfPacket, CompletableFuture<Boolean>> sender, TimerWheel timerWheel, long maxTimeoutMs, long sendTimeoutMs, Counter attempts, Counter unanswered) {
+        this.sender = sender;
+        this.timerWheel = timerWheel;
+        this.maxTimeoutMs = maxTimeoutMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.attempts = attempts;
+        this.unanswered = unanswered;
+    }
+
+    /**
+     * @param isReply    recognizes the reply among the packets received from the address
+     * @param timeoutMs  how long to wait for the reply to the first attempt
+     * @param maxAttempts how often the request is sent at most
+     * @return completes with a copy of the reply, or null if there was none
+     */
+    public CompletableFuture<SerialConnection.RfPacket> request(SerialConnection.RfPacket request, Predicate<SerialConnection.RfPacket> isReply, long timeoutMs, int maxAttempts) {
+        Exchange exchange = new Exchange(request, isReply, timeoutMs, maxAttempts);
+        int addr = request.getRemoteAddr() & 0xFF;
+        synchronized (this) {
+            if (closed) {
+                exchange.result.complete(null);
+                return exchange.result;
+            }
+            if (inFlight[addr] != null) {
+                if (waiting.get(addr) == null) {
+                    waiting.set(addr, new ArrayDeque<>());
+                }
+                waiting.get(addr).add(exchange);
+                return exchange.result;
+            }
+            inFlight[addr] = exchange;
+        }
+        send(exchange);
+        return exchange.result;
+    }
+
+    /**
+     * @return true if the packet was the reply to a request in flight, it must not be processed further then
+     */
+    public boolean onReceived(SerialConnection.RfPacket packet) {
+        int addr = packet.getRemoteAddr() & 0xFF;
+        Exchange exchange;
+        synchronized (this) {
+            exchange = inFlight[addr];
+            // anything received before the request went out, e.g. a regular report, cannot be the reply
+            if (exchange == null || !exchange.sent || !exchange.isReply.test(packet)) {
+                return false;
+            }
+        }
+        complete(exchange, packet.copy());
+        return true;
+    }
+
+    private void send(Exchange exchange) {
+        int attempt;
+        synchronized (this) {
+            attempt = ++exchange.attempt;
+        }
+        long timeoutMs = Math.min(maxTimeoutMs, exchange.timeoutMs << Math.min(30, attempt - 1));
+        attempts.increment();
+        // the writer waits while the transceiver is disconnected
+        sender.apply(exchange.request).completeOnTimeout(false, sendTimeoutMs, TimeUnit.MILLISECONDS).whenComplete((written, e) -> {
+            synchronized (this) {
+                if (exchange.result.isDone() || exchange.attempt != attempt) {
+                    return;
+                }
+                exchange.sent = true;
+                // the time to answer only starts once the request is on air
+                exchange.deadline = timerWheel.schedule(() -> onDeadline(exchange, attempt), timeoutMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Completes the requests in flight or waiting with null, and all later ones right away.
+     */
+    public void close() {
+        List<Exchange> failed = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (int addr = 0; addr < inFlight.length; addr++) {
+                if (inFlight[addr] != null) {
+                    if (inFlight[addr].deadline != null) {
+                        inFlight[addr].deadline.cancel();
+                    }
+                    failed.add(inFlight[addr]);
+                    inFlight[addr] = null;
+                }
+                if (waiting.get(addr) != null) {
+                    failed.addAll(waiting.get(addr));
+                    waiting.get(addr).clear();
+                }
+            }
+        }
+        for (Exchange exchange : failed) {
+            exchange.result.complete(null);
+        }
+    }
+
+    private void onDeadline(Exchange exchange, int attempt) {
+        synchronized (this) {
+            if (exchange.result.isDone() || exchange.attempt != attempt) {
+                return;
+            }
+        }
+        if (attempt < exchange.maxAttempts) {
+            logger.debug("No reply to {} yet, attempt {}", exchange.request, attempt + 1);
+            send(exchange);
+        } else {
+            logger.warn("No reply to {} after {} attempts", exchange.request, attempt);
+            unanswered.increment();
+            complete(exchange, null);
+        }
+    }
+
+    private void complete(Exchange exchange, SerialConnection.RfPacket reply) {
+        int addr = exchange.request.getRemoteAddr() & 0xFF;
+        Exchange next;
+        synchronized (this) {
+            if (inFlight[addr] != exchange) {
+                return;
+            }
+            if (exchange.deadline != null) {
+                exchange.deadline.cancel();
+            }
+            inFlight[addr] = waiting.get(addr) == null ? null : waiting.get(addr).poll();
+            next = inFlight[addr];
+        }
+        exchange.result.complete(reply);
+        if (next != null) {
+            send(next);
+        }
+    }
+
+    private static class Exchange {
+        private final SerialConnection.RfPacket request;
+        private final Predicate<SerialConnection.RfPacket> isReply;
+        private final long timeoutMs;
+        private final int maxAttempts;
+        private final CompletableFuture<SerialConnection.RfPacket> result = new CompletableFuture<>();
+
+        // guarded by the correlator
+        private int attempt;
+        private boolean sent;
+        private TimerWheel.Timeout deadline;
+
+        private Exchange(SerialConnection.RfPacket request, Predicate<SerialConnection.RfPacket> isReply, long timeoutMs, int maxAttempts) {
+            this.request = request;
+            this.isReply = isReply;
+            this.timeoutMs = timeoutMs;
+            this.maxAttempts = maxAttempts;
+        }
+    }
+}
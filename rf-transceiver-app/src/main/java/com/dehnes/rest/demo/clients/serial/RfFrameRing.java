@@ -0,0 +1,176 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import com.dehnes.rest.server.metrics.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Ring buffer over a direct {@link ByteBuffer} holding the raw byte stream received from the transceiver.
+ * <p>
+ * Frames (<errorCode>,<dst>,<from>,<msgLen>,msg...) are parsed in place: {@link #next()} moves a cursor
+ * over the next complete frame instead of copying or compacting the buffer. The bytes of the current
+ * frame stay valid until the next call to {@link #readFrom(ReadableByteChannel)} or {@link #write(byte[], int, int)}.
+ * <p>
+ * The biggest possible frame is 4 + 127 bytes, so as long as the capacity exceeds that and frames are
+ * consumed before reading more, the ring can never fill up with an incomplete frame.
+ * <p>
+ * Not thread safe - meant to be owned by the reader thread.
+ */
+public class RfFrameRing {
+    private static final Logger logger = LoggerFactory.getLogger(RfFrameRing.class);
+
+    private static final int HEADER_LEN = 4;
+
+    private final ByteBuffer buf;
+    private final ByteBuffer fill;
+    private final int capacity;
+    private final int mask;
+    private final Counter skippedErrorCodes;
+    private final Counter skippedInvalidLengths;
+
+    private long readPos;
+    private long writePos;
+
+    // the current frame, valid after next() returned true
+    private int frameDst;
+    private int frameFrom;
+    private long frameStart;
+    private int frameLength;
+
+    public RfFrameRing(int capacity) {
+        this(capacity, new Counter(), new Counter());
+    }
+
+    /**
+     * @param skippedErrorCodes     counts the error codes reported by the transceiver instead of a frame
+     * @param skippedInvalidLengths counts the headers skipped because of an invalid message length
+     */
+    public RfFrameRing(int capacity, Counter skippedErrorCodes, Counter skippedInvalidLengths) {
+        if (capacity < 256 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two >= 256, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buf = ByteBuffer.allocateDirect(capacity);
+        this.fill = buf.duplicate();
+        this.skippedErrorCodes = skippedErrorCodes;
+        this.skippedInvalidLengths = skippedInvalidLengths;
+    }
+
+    public void clear() {
+        readPos = 0;
+        writePos = 0;
+        frameLength = 0;
+    }
+
+    public int available() {
+        return (int) (writePos - readPos);
+    }
+
+    public int free() {
+        return capacity - available();
+    }
+
+    /**
+     * Reads as many bytes as fit into the contiguous free region of the ring.
+     *
+     * @return the number of bytes read, possibly zero, or -1 if the channel has reached end-of-stream
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        int free = free();
+        if (free == 0) {
+            return 0;
+        }
+        int start = (int) (writePos & mask);
+        int len = Math.min(free, capacity - start);
+
+        fill.clear();
+        fill.position(start);
+        fill.limit(start + len);
+
+        int read = channel.read(fill);
+        if (read > 0) {
+            writePos += read;
+        }
+        return read;
+    }
+
+    /**
+     * Appends bytes received by other means than a channel.
+     *
+     * @return the number of bytes which did fit into the ring
+     */
+    public int write(byte[] src, int offset, int length) {
+        int len = Math.min(length, free());
+        for (int i = 0; i < len; i++) {
+            buf.put((int) ((writePos + i) & mask), src[offset + i]);
+        }
+        writePos += len;
+        return len;
+    }
+
+    /**
+     * Moves the cursor to the next complete frame, skipping error codes and invalid lengths.
+     *
+     * @return false if there is no complete frame in the ring yet
+     */
+    public boolean next() {
+        while (available() >= HEADER_LEN) {
+            int errorCode = byteAt(readPos) & 0xFF;
+            if (errorCode != 0) { // skip error
+                logger.debug("Skipping error {}", errorCode);
+                skippedErrorCodes.increment();
+                readPos++;
+                continue;
+            }
+
+            int msgLen = byteAt(readPos + 3);
+            if (msgLen < 1) {
+                logger.debug("Skipping negative msgLen");
+                skippedInvalidLengths.increment();
+                readPos += HEADER_LEN;
+                continue;
+            }
+
+            // do we have a complete packet?
+            if (available() < HEADER_LEN + msgLen) {
+                return false;
+            }
+
+            frameDst = byteAt(readPos + 1) & 0xFF;
+            frameFrom = byteAt(readPos + 2) & 0xFF;
+            frameStart = readPos + HEADER_LEN;
+            frameLength = msgLen;
+            readPos += HEADER_LEN + msgLen;
+            return true;
+        }
+        return false;
+    }
+
+    public int frameDst() {
+        return frameDst;
+    }
+
+    public int frameFrom() {
+        return frameFrom;
+    }
+
+    public int frameLength() {
+        return frameLength;
+    }
+
+    /**
+     * @return the unsigned message byte at position i of the current frame
+     */
+    public int frameU8(int i) {
+        return byteAt(frameStart + i) & 0xFF;
+    }
+
+    private byte byteAt(long pos) {
+        return buf.get((int) (pos & mask));
+    }
+}
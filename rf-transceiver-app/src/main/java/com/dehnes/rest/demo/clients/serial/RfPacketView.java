@@ -0,0 +1,59 @@
+package com.dehnes.rest.demo.clients.serial;
+
+/**
+ * Read-only view over the current frame of a {@link RfFrameRing}.
+ * <p>
+ * A single instance is re-used by the reader thread for every received frame, so decoding a frame via
+ * {@link #u8(int)}, {@link #u16le(int)} and {@link #u16be(int)} does not allocate. The view is only valid
+ * while the listener is being called - use {@link #copy()} to keep the packet.
+ */
+public class RfPacketView extends SerialConnection.RfPacket {
+
+    private static final int[] EMPTY = new int[0];
+
+    private RfFrameRing ring;
+
+    RfPacketView() {
+        super(0, EMPTY);
+    }
+
+    RfPacketView wrap(RfFrameRing ring) {
+        this.ring = ring;
+        return this;
+    }
+
+    @Override
+    public int getRemoteAddr() {
+        return ring.frameFrom();
+    }
+
+    /**
+     * Allocates a copy of the message, prefer the accessors.
+     */
+    @Override
+    public int[] getMessage() {
+        int[] message = new int[length()];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = ring.frameU8(i);
+        }
+        return message;
+    }
+
+    @Override
+    public int length() {
+        return ring.frameLength();
+    }
+
+    @Override
+    public int u8(int i) {
+        if (i < 0 || i >= ring.frameLength()) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + ring.frameLength());
+        }
+        return ring.frameU8(i);
+    }
+
+    @Override
+    public SerialConnection.RfPacket copy() {
+        return new SerialConnection.RfPacket(getRemoteAddr(), getMessage());
+    }
+}
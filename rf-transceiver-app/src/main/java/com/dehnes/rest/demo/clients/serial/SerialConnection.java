@@ -1,5 +1,7 @@
 package com.dehnes.rest.demo.clients.serial;
 
+import com.dehnes.rest.server.metrics.Counter;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,20 +15,30 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class SerialConnection {
     private static final Logger logger = LoggerFactory.getLogger(SerialConnection.class);
 
     private static final byte MY_DST = 1;
 
-    private final Set<Function<RfPacket, Boolean>> listeners = new HashSet<>();
+    private static final int ADDRESS_SPACE = 256;
+
+    // indexed by remote address, read lock-free by the readerThread
+    private final AtomicReferenceArray<Consumer<RfPacket>> addressListeners = new AtomicReferenceArray<>(ADDRESS_SPACE);
+    // consulted for addresses without a dedicated listener
+    private final CopyOnWriteArrayList<Function<RfPacket, Boolean>> listeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Consumer<RfPacket>> packetObservers = new CopyOnWriteArrayList<>();
     private final SocketAddress dst;
     private final AtomicBoolean isStarted = new AtomicBoolean(false);
 
@@ -34,15 +46,70 @@ public class SerialConnection {
     private Socket socket;
     private InputStream in;
 
-    private final ReentrantLock outputStreamLock = new ReentrantLock();
-    private final Condition sendingSyncer = outputStreamLock.newCondition();
-    private OutputStream out;
-    private final LinkedList<SendRequest> sendingQueue = new LinkedList<>();
+    private volatile OutputStream out;
+    private final ConcurrentLinkedQueue<SendRequest> sendingQueue = new ConcurrentLinkedQueue<>();
+    // local to the writerThread, fed from the sendingQueue
+    private final OutboundScheduler scheduler = new OutboundScheduler();
+    // frames per second and how many frames may be written back-to-back
+    private final int sendBurst = Integer.parseInt(System.getProperty("RF_SEND_BURST", "1"));
+    private final TokenBucket sendPacing = new TokenBucket(
+            Double.parseDouble(System.getProperty("RF_SEND_RATE", "10")),
+            sendBurst);
+    private volatile Thread writerThread;
+
+    // only set if the non-blocking transport is enabled
+    private final NioSerialTransport nioTransport;
+    private final int ringSize = Integer.parseInt(System.getProperty("SERIAL_RING_SIZE", "4096"));
+
+    // local to the readerThread, re-used for every received frame
+    private final RfPacketView packetView = new RfPacketView();
+
+    // deadlines of the requests waiting for a reply, idle unless there are any
+    private final TimerWheel timerWheel = new TimerWheel("rfTimers", 10, 512);
+    private final RequestCorrelator correlator;
+
+    private final Counter framesReceived;
+    private final Counter framesNotForMe;
+    private final Counter skippedErrorCodes;
+    private final Counter skippedInvalidLengths;
+    private final Counter packetsUnhandled;
+    private final Counter framesSent;
+    private final Counter sendFailures;
+    // queued or waiting in the scheduler
+    private final AtomicInteger sendsPending = new AtomicInteger();
 
     public SerialConnection() {
+        this(new MetricsRegistry());
+    }
+
+    public SerialConnection(MetricsRegistry metricsRegistry) {
         this.dst = new InetSocketAddress(
                 System.getProperty("DST_HOST", "localhost"),
                 Integer.parseInt(System.getProperty("DST_PORT", "23000")));
+
+        framesReceived = metricsRegistry.counter("rf_frames_received_total", "Frames received for us");
+        framesNotForMe = metricsRegistry.counter("rf_frames_not_for_me_total", "Frames received for other destinations");
+        skippedErrorCodes = metricsRegistry.counter("rf_frames_skipped_total", "Bytes skipped instead of a frame", "reason", "error_code");
+        skippedInvalidLengths = metricsRegistry.counter("rf_frames_skipped_total", "Bytes skipped instead of a frame", "reason", "invalid_length");
+        packetsUnhandled = metricsRegistry.counter("rf_packets_unhandled_total", "Packets no listener was found for");
+        framesSent = metricsRegistry.counter("rf_frames_sent_total", "Frames written to the transceiver");
+        sendFailures = metricsRegistry.counter("rf_send_failures_total", "Frames which could not be written");
+        metricsRegistry.gauge("rf_send_queue_depth", "Frames waiting to be sent", sendsPending::get);
+        metricsRegistry.gauge("rf_connected", "1 if connected to the transceiver", () -> isConnected() ? 1 : 0);
+
+        this.correlator = new RequestCorrelator(
+                this::sendAsync,
+                timerWheel,
+                Long.parseLong(System.getProperty("RF_REPLY_MAX_TIMEOUT_MS", "4000")),
+                Long.parseLong(System.getProperty("RF_SEND_TIMEOUT_MS", "5000")),
+                metricsRegistry.counter("rf_request_attempts_total", "Requests sent, including repetitions"),
+                metricsRegistry.counter("rf_requests_unanswered_total", "Requests which got no reply after all attempts"));
+
+        if ("nio".equalsIgnoreCase(System.getProperty("SERIAL_TRANSPORT", "socket"))) {
+            this.nioTransport = new NioSerialTransport(dst, newRing());
+        } else {
+            this.nioTransport = null;
+        }
     }
 
     public static class RfPacket {
@@ -62,68 +129,174 @@ public class SerialConnection {
             return message;
         }
 
+        public int length() {
+            return message.length;
+        }
+
+        /**
+         * @return the unsigned byte at position i of the message
+         */
+        public int u8(int i) {
+            return message[i];
+        }
+
+        /**
+         * @return the unsigned 16 bit value at position i of the message, low byte first
+         */
+        public int u16le(int i) {
+            return u8(i) | (u8(i + 1) << 8);
+        }
+
+        /**
+         * @return the unsigned 16 bit value at position i of the message, high byte first
+         */
+        public int u16be(int i) {
+            return (u8(i) << 8) | u8(i + 1);
+        }
+
+        /**
+         * @return a packet which remains valid after the listener returned. Packets handed to
+         * listeners may be views over the receive buffer and must be copied if they are kept.
+         */
+        public RfPacket copy() {
+            return this;
+        }
+
         @Override
         public String toString() {
             return "RfPacket{" +
-                    "remoteAddr=" + remoteAddr +
-                    ", message=" + Arrays.toString(message) +
+                    "remoteAddr=" + getRemoteAddr() +
+                    ", message=" + Arrays.toString(getMessage()) +
                     '}';
         }
     }
 
-    public class SendRequest {
+    public static class SendRequest {
         private final RfPacket packet;
-        private final Queue<Boolean> result;
+        private final CompletableFuture<Boolean> result;
+        private final boolean replacePending;
 
-        public SendRequest(RfPacket packet, Queue<Boolean> result) {
+        public SendRequest(RfPacket packet, CompletableFuture<Boolean> result, boolean replacePending) {
             this.packet = packet;
             this.result = result;
+            this.replacePending = replacePending;
+        }
+
+        public RfPacket getPacket() {
+            return packet;
+        }
+
+        public CompletableFuture<Boolean> getResult() {
+            return result;
+        }
+
+        public boolean isReplacePending() {
+            return replacePending;
         }
     }
 
-    public void registerListener(Function<RfPacket, Boolean> listener) {
-        synchronized (listeners) {
-            if (listeners.contains(listener)) {
-                throw new RuntimeException("Listener already registered");
-            }
-            listeners.add(listener);
+    /**
+     * Registers the listener for all packets received from the given address.
+     */
+    public void registerListener(int remoteAddr, Consumer<RfPacket> listener) {
+        assertValidAddress(remoteAddr);
+        if (!addressListeners.compareAndSet(remoteAddr, null, listener)) {
+            throw new RuntimeException("Listener already registered for address " + remoteAddr);
         }
     }
 
-    public void unregisterListener(Function<RfPacket, Boolean> listener) {
-        synchronized (listeners) {
-            if (!listeners.contains(listener)) {
-                throw new RuntimeException("Listener does not exist");
-            }
-            listeners.remove(listener);
+    public void unregisterListener(int remoteAddr, Consumer<RfPacket> listener) {
+        assertValidAddress(remoteAddr);
+        if (!addressListeners.compareAndSet(remoteAddr, listener, null)) {
+            throw new RuntimeException("Listener does not exist for address " + remoteAddr);
         }
     }
 
-    public boolean send(RfPacket rfPacket, long timeout, TimeUnit timeUnit) {
-        LinkedBlockingQueue<Boolean> q = new LinkedBlockingQueue<>();
+    /**
+     * Registers a fallback listener for packets from addresses without a dedicated listener.
+     * The listener returns true if it handled the packet.
+     */
+    public void registerListener(Function<RfPacket, Boolean> listener) {
+        if (!listeners.addIfAbsent(listener)) {
+            throw new RuntimeException("Listener already registered");
+        }
+    }
 
-        outputStreamLock.lock();
-        try {
+    public void unregisterListener(Function<RfPacket, Boolean> listener) {
+        if (!listeners.remove(listener)) {
+            throw new RuntimeException("Listener does not exist");
+        }
+    }
 
-            sendingQueue.offer(new SendRequest(
-                    rfPacket,
-                    q
-            ));
+    /**
+     * Registers an observer which sees every packet received for us, before it is dispatched to the listeners.
+     * The packet is only valid during the call, observers must copy() it to keep it.
+     */
+    public void addPacketObserver(Consumer<RfPacket> observer) {
+        packetObservers.addIfAbsent(observer);
+    }
 
-            sendingSyncer.signalAll();
+    public void removePacketObserver(Consumer<RfPacket> observer) {
+        packetObservers.remove(observer);
+    }
 
-        } finally {
-            outputStreamLock.unlock();
+    private static void assertValidAddress(int remoteAddr) {
+        if (remoteAddr < 0 || remoteAddr >= ADDRESS_SPACE) {
+            throw new IllegalArgumentException("Invalid address " + remoteAddr);
         }
+    }
 
+    public boolean send(RfPacket rfPacket, long timeout, TimeUnit timeUnit) {
         try {
-            Boolean poll = q.poll(timeout, timeUnit);
-            return poll == null ? false : poll;
-        } catch (InterruptedException ignored) {
+            return sendAsync(rfPacket).get(timeout, timeUnit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
         }
         return false;
     }
 
+    public CompletableFuture<Boolean> sendAsync(RfPacket rfPacket) {
+        return sendAsync(rfPacket, false);
+    }
+
+    /**
+     * Queues the packet for sending without blocking the caller. An identical packet which is still pending
+     * is only sent once.
+     *
+     * @param replacePending if true, packets still pending for the same address are dropped and their futures cancelled
+     * @return completes with true once the packet was written to the transceiver, or false if writing failed
+     */
+    public CompletableFuture<Boolean> sendAsync(RfPacket rfPacket, boolean replacePending) {
+        SendRequest sendRequest = new SendRequest(rfPacket, new CompletableFuture<>(), replacePending);
+        sendsPending.incrementAndGet();
+        sendRequest.result.whenComplete((r, e) -> sendsPending.decrementAndGet());
+        sendingQueue.offer(sendRequest);
+        LockSupport.unpark(writerThread);
+        return sendRequest.result;
+    }
+
+    /**
+     * Sends the request and waits for its reply without blocking the caller. Requests to the same address are
+     * sent one after the other. A request which is not answered in time is sent again, each time waiting twice
+     * as long for the reply. The reply is not passed on to the listeners.
+     *
+     * @param isReply     recognizes the reply among the packets received from the address
+     * @param timeoutMs   how long to wait for the reply to the first attempt
+     * @param maxAttempts how often the request is sent at most
+     * @return completes with the reply, or null if there was none
+     */
+    public CompletableFuture<RfPacket> request(RfPacket request, Predicate<RfPacket> isReply, long timeoutMs, int maxAttempts) {
+        return correlator.request(request, isReply, timeoutMs, maxAttempts);
+    }
+
+    /**
+     * Sets the priority class for all packets sent to the given address.
+     */
+    public void setPriority(int remoteAddr, OutboundScheduler.Priority priority) {
+        scheduler.setPriority(remoteAddr, priority);
+    }
+
     @PostConstruct
     public synchronized void start() {
         if (isStarted.get()) {
@@ -134,20 +307,25 @@ public class SerialConnection {
 
         Thread readerThread = new Thread(() -> {
             try {
-                readTask().run();
+                if (nioTransport != null) {
+                    nioTransport.run(isStarted::get, this::onFrame);
+                } else {
+                    readTask().run();
+                }
             } catch (Exception e) {
                 logger.error("read thread failed permanently", e);
             }
         }, "readerThread");
         readerThread.start();
 
-        new Thread(() -> {
+        writerThread = new Thread(() -> {
             try {
                 writeTask().run();
             } catch (Exception e) {
                 logger.info("writer thread failed permanently", e);
             }
-        }, "writerThread").start();
+        }, "writerThread");
+        writerThread.start();
     }
 
     @PreDestroy
@@ -158,57 +336,70 @@ public class SerialConnection {
 
         isStarted.set(false);
 
+        // nobody is going to answer anymore
+        correlator.close();
+        timerWheel.stop();
+
         // notify the writer
-        outputStreamLock.lock();
-        try {
-            sendingSyncer.signalAll();
-        } finally {
-            outputStreamLock.unlock();
-        }
+        LockSupport.unpark(writerThread);
 
         // notify the reader
-        close(socket);
+        if (nioTransport != null) {
+            nioTransport.wakeup();
+        } else {
+            close(socket);
+        }
     }
 
     private Runnable writeTask() {
         return () -> {
+            SendRequest[] batch = new SendRequest[sendBurst];
+
             while (isStarted.get()) {
 
-                outputStreamLock.lock();
-                try {
+                SendRequest sendRequest;
+                while ((sendRequest = sendingQueue.poll()) != null) {
+                    scheduler.admit(sendRequest);
+                }
 
-                    SendRequest sendRequest = null;
-                    while (isStarted.get() && (sendRequest = sendingQueue.poll()) == null) {
-                        try {
-                            sendingSyncer.await();
-                        } catch (InterruptedException ignored) {
-                        }
-                    }
+                if (scheduler.isEmpty()) {
+                    LockSupport.park(this);
+                    continue;
+                }
 
-                    if (sendRequest == null) {
-                        return; // is shutting down
-                    }
+                if (!isConnected()) { // not connected yet
+                    LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+                    continue;
+                }
 
-                    if (out == null) { // not connected yet
-                        sendingQueue.addFirst(sendRequest);
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException ignored) {
-                        }
-                        continue;
-                    }
+                // do not flood the sender
+                long wait = sendPacing.nanosUntilAvailable();
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                    continue;
+                }
 
-                    sendRequest.result.offer(writePacket(sendRequest.packet, out));
+                int count = 0;
+                int tokens = Math.min(batch.length, sendPacing.available());
+                while (count < tokens && (sendRequest = scheduler.poll()) != null) {
+                    batch[count++] = sendRequest;
+                }
+                sendPacing.take(count);
 
-                    // do not flood the sender
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ignored) {
-                    }
-                } finally {
-                    outputStreamLock.unlock();
+                boolean result = writePackets(batch, count);
+                (result ? framesSent : sendFailures).add(count);
+                for (int i = 0; i < count; i++) {
+                    batch[i].result.complete(result);
+                    batch[i] = null;
                 }
             }
+
+            // is shutting down
+            SendRequest sendRequest;
+            while ((sendRequest = sendingQueue.poll()) != null) {
+                scheduler.admit(sendRequest);
+            }
+            scheduler.drain(r -> r.result.complete(false));
         };
     }
 
@@ -227,29 +418,31 @@ public class SerialConnection {
                     continue;
                 }
 
-                byte[] buf = new byte[1024];
-                AtomicInteger writePos = new AtomicInteger(0);
+                RfFrameRing ring = newRing();
+                byte[] chunk = new byte[256];
 
-                RfPacket nextPacket;
                 while (isStarted.get()) { // keep reading packets while connected
-                    nextPacket = tryReadNextPacket(in, buf, writePos);
-                    if (nextPacket == null) {
+                    int read;
+                    try {
+                        read = in.read(chunk, 0, Math.min(chunk.length, ring.free()));
+                    } catch (IOException e) {
                         break; // Some I/O error - give up
                     }
-                    distributeNewMessage(nextPacket);
+                    if (read < 0) {
+                        break;
+                    }
+                    ring.write(chunk, 0, read);
+                    while (ring.next()) {
+                        onFrame(ring);
+                    }
                 }
             }
 
             // something went wrong OR we are asked to shut down
 
             // close out stream
-            outputStreamLock.lock();
-            try {
-                close(out);
-                out = null;
-            } finally {
-                outputStreamLock.unlock();
-            }
+            close(out);
+            out = null;
             close(in);
             in = null;
             close(socket);
@@ -258,13 +451,40 @@ public class SerialConnection {
         };
     }
 
-    private boolean writePacket(RfPacket packet, OutputStream out) {
-        byte[] buf = new byte[packet.message.length + 1];
-        buf[0] = (byte) packet.remoteAddr;
-        for (int i = 0; i < packet.message.length; i++) {
-            buf[i + 1] = (byte) packet.message[i];
+    private RfFrameRing newRing() {
+        return new RfFrameRing(ringSize, skippedErrorCodes, skippedInvalidLengths);
+    }
+
+    private boolean isConnected() {
+        return nioTransport != null ? nioTransport.isConnected() : out != null;
+    }
+
+    /**
+     * Writes all packets with a single write, each one as <dst>,msg...
+     */
+    private boolean writePackets(SendRequest[] batch, int count) {
+        int len = 0;
+        for (int i = 0; i < count; i++) {
+            len += batch[i].packet.length() + 1;
+        }
+        byte[] buf = new byte[len];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            RfPacket packet = batch[i].packet;
+            buf[pos++] = (byte) packet.getRemoteAddr();
+            for (int j = 0; j < packet.length(); j++) {
+                buf[pos++] = (byte) packet.u8(j);
+            }
         }
 
+        if (nioTransport != null) {
+            return nioTransport.write(buf);
+        }
+
+        OutputStream out = this.out;
+        if (out == null) {
+            return false;
+        }
         try {
             out.write(buf);
             return true;
@@ -273,90 +493,49 @@ public class SerialConnection {
         return false;
     }
 
-    private RfPacket tryReadNextPacket(InputStream in, byte[] buf, AtomicInteger writePos) {
-        // packet format: <errorCode>,<dst>,<from>,<msgLen>,msg...
+    private void onFrame(RfFrameRing ring) {
+        RfPacketView p = packetView.wrap(ring);
 
-        while (true) {
-
-            // we need at least 4 bytes
-            if (writePos.get() >= 4) {
-                int errorCode = buf[0] & 0xFF;
-                int dst = buf[1] & 0xFF;
-                int from = buf[2] & 0xFF;
-                int msgLen = buf[3];
-
-                byte[] debug = new byte[4];
-                System.arraycopy(buf, 0, debug, 0, 4);
-                logger.debug("Got {}", debug);
-
-                if (errorCode != 0) { // skip error
-                    logger.debug("Skipping error " + errorCode);
-                    compact(buf, 1, writePos);
-                    continue;
-                }
-
-                if (writePos.get() >= 4 && msgLen < 1) {
-                    logger.debug("Skipping negative msgLen");
-                    compact(buf, 4, writePos);
-                    continue;
-                }
-
-                // do we have a complete packet?
-                if (writePos.get() >= 4 + msgLen) {
-                    byte[] msg = new byte[msgLen];
-                    System.arraycopy(buf, 4, msg, 0, msgLen);
-                    RfPacket p = new RfPacket(
-                            from,
-                            convert(msg)
-                    );
-                    compact(buf, 4 + msgLen, writePos);
-
-                    if (dst == MY_DST) {
-                        logger.info("Received packet " + p);
-                        return p;
-                    } else {
-                        logger.debug("Packet not for me " + p);
-                    }
-                }
-            }
+        if (ring.frameDst() == MY_DST) {
+            logger.debug("Received packet {}", p);
+            framesReceived.increment();
+            distributeNewMessage(p);
+        } else {
+            logger.debug("Packet not for me {}", p);
+            framesNotForMe.increment();
+        }
+    }
 
+    private void distributeNewMessage(RfPacket rfPacket) {
+        for (Consumer<RfPacket> observer : packetObservers) {
             try {
-                writePos.set(writePos.get() + in.read(buf, writePos.get(), buf.length - writePos.get()));
-            } catch (IOException e) {
-                return null;
+                observer.accept(rfPacket);
+            } catch (Exception e) {
+                logger.error("", e);
             }
+        }
 
-            if (writePos.get() == buf.length) {
-                // forced to give up
-                logger.info("Buffer is full, giving up");
-                return null;
-            }
+        if (correlator.onReceived(rfPacket)) {
+            return;
         }
-    }
 
-    private int[] convert(byte[] in) {
-        if (in.length > 0) {
-            int[] a = new int[in.length];
-            for (int i = 0; i < in.length; i++) {
-                a[i] = in[i] & 0xFF;
+        Consumer<RfPacket> addressListener = addressListeners.get(rfPacket.getRemoteAddr());
+        if (addressListener != null) {
+            try {
+                addressListener.accept(rfPacket);
+            } catch (Exception e) {
+                logger.error("", e);
             }
-            return a;
-        } else {
-            return new int[0];
+            return;
         }
-    }
 
-    private void compact(byte[] buf, int firstByte, AtomicInteger writePos) {
-        System.arraycopy(buf, firstByte, buf, 0, buf.length - firstByte);
-        writePos.set(writePos.get() - firstByte);
-    }
-
-    private void distributeNewMessage(RfPacket rfPacket) {
-        synchronized (listeners) {
-            if (!listeners.stream().filter(l -> exceptionLogger(l, rfPacket)).findFirst().isPresent()) {
-                logger.info("No handler found for this sensor " + rfPacket.getRemoteAddr());
+        for (Function<RfPacket, Boolean> listener : listeners) {
+            if (exceptionLogger(listener, rfPacket)) {
+                return;
             }
         }
+        packetsUnhandled.increment();
+        logger.info("No handler found for this sensor " + rfPacket.getRemoteAddr());
     }
 
     private Boolean exceptionLogger(Function<RfPacket, Boolean> r, RfPacket rfPacket) {
@@ -1,6 +1,6 @@
 package com.dehnes.rest.demo.clients.serial;
 
-import com.dehnes.rest.demo.services.Sht15SensorService;
+import com.dehnes.rest.demo.services.sensors.Sht15Decoder;
 import com.dehnes.rest.demo.utils.MathTools;
 
 import java.util.concurrent.TimeUnit;
@@ -13,9 +13,9 @@ public class SerialConnectionTest {
         serialConnection.start();
         serialConnection.registerListener(rfPacket -> {
             System.out.println(rfPacket);
-            int temperatur = Sht15SensorService.getTemperature(rfPacket);
+            int temperatur = Sht15Decoder.calcTemp(rfPacket.u16be(0));
             System.out.println("Temp: " + MathTools.divideBy100(temperatur));
-            System.out.println("Humidity: " + MathTools.divideBy100(Sht15SensorService.getRelativeHumidity(rfPacket, temperatur)));
+            System.out.println("Humidity: " + MathTools.divideBy100(Sht15Decoder.calcHum(rfPacket.u16be(2), temperatur)));
             return true;
         });
         int nextCommand = 0;
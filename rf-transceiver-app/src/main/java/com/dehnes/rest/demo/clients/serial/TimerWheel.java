@@ -0,0 +1,129 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel for many short-lived timeouts.
+ * <p>
+ * Timeouts are put into one of wheelSize slots by their deadline, rounded up to whole ticks; one which is more
+ * than one revolution away waits for its remaining rounds. Scheduling and cancelling are O(1), the timer thread
+ * only looks at a single slot per tick and sleeps while nothing is scheduled. Tasks run on the timer thread and
+ * must be short.
+ */
+public class TimerWheel {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel;
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+
+    private volatile boolean running = true;
+
+    // local to the timer thread
+    private long tick;
+    private int scheduled;
+
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        added.offer(timeout);
+        LockSupport.unpark(thread);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        int mask = wheel.size() - 1;
+        while (running) {
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                if (timeout.cancelled) {
+                    continue;
+                }
+                // never into a slot which was already processed
+                long ticks = Math.max(tick, (timeout.deadlineNanos + tickNanos - 1) / tickNanos);
+                timeout.rounds = (ticks - tick) / wheel.size();
+                wheel.get((int) (ticks & mask)).add(timeout);
+                scheduled++;
+            }
+
+            if (scheduled == 0) {
+                LockSupport.park(this);
+                tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+                continue;
+            }
+
+            // the slot of tick holds the deadlines up to tick * tickNanos
+            long sleep = tick * tickNanos - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+
+            // process the current slot, then move on
+            Iterator<Timeout> it = wheel.get((int) (tick & mask)).iterator();
+            while (it.hasNext()) {
+                Timeout t = it.next();
+                if (t.cancelled) {
+                    it.remove();
+                    scheduled--;
+                } else if (t.rounds > 0) {
+                    t.rounds--;
+                } else {
+                    it.remove();
+                    scheduled--;
+                    try {
+                        t.task.run();
+                    } catch (Exception e) {
+                        logger.error("", e);
+                    }
+                }
+            }
+            tick++;
+        }
+    }
+
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        // local to the timer thread
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
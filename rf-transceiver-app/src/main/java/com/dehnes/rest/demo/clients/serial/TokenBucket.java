@@ -0,0 +1,67 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the frames sent to the transceiver: tokens are refilled at a fixed rate up to the burst size and
+ * every frame costs one token.
+ * <p>
+ * Not thread safe - meant to be owned by the writer thread.
+ */
+public class TokenBucket {
+
+    private final long nanosPerToken;
+    private final int burst;
+
+    private long tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, int burst) {
+        if (tokensPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate " + tokensPerSecond + " or burst " + burst);
+        }
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return how long to wait until at least one token is available, zero if available now
+     */
+    public long nanosUntilAvailable() {
+        refill();
+        if (tokens > 0) {
+            return 0;
+        }
+        return Math.max(1, lastRefill + nanosPerToken - System.nanoTime());
+    }
+
+    public int available() {
+        refill();
+        return (int) tokens;
+    }
+
+    /**
+     * Takes n tokens, which must be available.
+     */
+    public void take(int n) {
+        if (n > tokens) {
+            throw new IllegalStateException("Only " + tokens + " tokens available, wanted " + n);
+        }
+        tokens -= n;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (tokens >= burst) { // nothing accrues while the bucket is full
+            lastRefill = now;
+            return;
+        }
+        long newTokens = (now - lastRefill) / nanosPerToken;
+        if (newTokens > 0) {
+            tokens = Math.min(burst, tokens + newTokens);
+            lastRefill = tokens == burst ? now : lastRefill + newTokens * nanosPerToken;
+        }
+    }
+}
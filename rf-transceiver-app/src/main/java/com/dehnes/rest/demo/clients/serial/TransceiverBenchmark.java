@@ -0,0 +1,158 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import com.dehnes.rest.demo.clients.influxdb.InfluxDBConnector;
+import com.dehnes.rest.demo.clients.tibber.TibberPriceClient;
+import com.dehnes.rest.demo.services.HeatingControllerService;
+import com.dehnes.rest.demo.services.PersistenceService;
+import com.dehnes.rest.demo.services.SensorStateStore;
+import com.dehnes.rest.demo.services.TibberService;
+import com.dehnes.rest.demo.services.sensors.SensorRegistry;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * End-to-end benchmark of the serial transport against the {@link TransceiverSimulator}, to measure the effect
+ * of changes to it. Reports
+ * <ul>
+ * <li>the frames per second decoded and dispatched</li>
+ * <li>the latency from writing a frame into the socket until it is dispatched, as percentiles</li>
+ * <li>the command round-trip latency through {@link HeatingControllerService}, as percentiles</li>
+ * </ul>
+ * Configured by system properties: BENCH_SECONDS, BENCH_ROUND_TRIPS, the SIM_* properties of the simulator and
+ * those of {@link SerialConnection}, e.g. SERIAL_TRANSPORT=nio.
+ */
+public class TransceiverBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = Integer.parseInt(System.getProperty("BENCH_SECONDS", "10"));
+        int roundTrips = Integer.parseInt(System.getProperty("BENCH_ROUND_TRIPS", "20"));
+        System.setProperty("SIM_RATE", System.getProperty("SIM_RATE", "2000"));
+        TransceiverSimulator.Profile profile = TransceiverSimulator.Profile.fromConfig();
+
+        Path tmp = Files.createTempDirectory("transceiverBenchmark");
+        System.setProperty("STORAGE_FILE_NAME", tmp.resolve("storage.properties").toString());
+        System.setProperty("INFLUXDB_SPOOL_DIR", tmp.resolve("spool").toString());
+
+        try (TransceiverSimulator simulator = new TransceiverSimulator(0, profile)) {
+            System.setProperty("DST_HOST", "localhost");
+            System.setProperty("DST_PORT", String.valueOf(simulator.getPort()));
+
+            MetricsRegistry metricsRegistry = new MetricsRegistry();
+            SerialConnection serialConnection = new SerialConnection(metricsRegistry);
+            // swapped for a fresh one once warmed up
+            AtomicReference<LatencyRecorder> dispatchLatency = new AtomicReference<>(new LatencyRecorder(1000));
+            serialConnection.addPacketObserver(p -> {
+                long sentAt = simulator.sentAtNanos(TransceiverSimulator.sequenceOf(p));
+                if (sentAt != 0) {
+                    dispatchLatency.get().record(System.nanoTime() - sentAt);
+                }
+            });
+            // swallow everything, only the dispatch is measured
+            serialConnection.registerListener(p -> true);
+            serialConnection.start();
+
+            System.out.println("Waiting for the connection...");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (dispatchLatency.get().count() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            if (dispatchLatency.get().count() == 0) {
+                throw new RuntimeException("No frames received from the simulator");
+            }
+
+            // frames
+            LatencyRecorder measured = new LatencyRecorder((int) (profile.framesPerSecond * seconds * 2));
+            dispatchLatency.set(measured);
+            long sentBefore = simulator.getFramesSent();
+            long misaddressedBefore = simulator.getMisaddressedSent();
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            int decoded = measured.count();
+            long sent = simulator.getFramesSent() - sentBefore;
+            long expected = sent - (simulator.getMisaddressedSent() - misaddressedBefore);
+
+            System.out.println(String.format("Frames: %d sent, %d for us, %d dispatched (%.0f/s, %.2f%% lost to noise)",
+                    sent, expected, decoded, decoded / elapsed, expected == 0 ? 0 : Math.max(0, 100D * (expected - decoded) / expected)));
+            System.out.println("Dispatch latency: " + measured.summary());
+
+            // command round trips through the heating controller
+            InfluxDBConnector influxDBConnector = new InfluxDBConnector(metricsRegistry);
+            PersistenceService persistenceService = new PersistenceService();
+            SensorRegistry sensorRegistry = new SensorRegistry();
+            HeatingControllerService heatingControllerService = new HeatingControllerService(
+                    persistenceService,
+                    serialConnection,
+                    influxDBConnector,
+                    new SensorStateStore(influxDBConnector, sensorRegistry),
+                    new TibberService(new TibberPriceClient(persistenceService), Clock.systemDefaultZone()),
+                    metricsRegistry,
+                    sensorRegistry);
+
+            LatencyRecorder roundTripLatency = new LatencyRecorder(roundTrips);
+            int failed = 0;
+            for (int i = 0; i < roundTrips; i++) {
+                long t = System.nanoTime();
+                boolean ok = i % 2 == 0 ? heatingControllerService.switchOn() : heatingControllerService.switchOff();
+                roundTripLatency.record(System.nanoTime() - t);
+                if (!ok) {
+                    failed++;
+                }
+            }
+            System.out.println(String.format("Heater switch on/off (status request plus switch command): %d of %d failed", failed, roundTrips));
+            System.out.println("Heater round trip: " + roundTripLatency.summary());
+
+            persistenceService.stop();
+            serialConnection.stop();
+        }
+    }
+
+    /**
+     * Collects latencies in nanoseconds, for one writing thread.
+     */
+    private static class LatencyRecorder {
+        private final long[] samples;
+        private volatile int count;
+
+        LatencyRecorder(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        void record(long nanos) {
+            int c = count;
+            if (c < samples.length) {
+                samples[c] = nanos;
+                count = c + 1;
+            }
+        }
+
+        int count() {
+            return count;
+        }
+
+        String summary() {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            if (sorted.length == 0) {
+                return "no samples";
+            }
+            return String.format("n=%d p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                    sorted.length,
+                    percentile(sorted, 0.5),
+                    percentile(sorted, 0.9),
+                    percentile(sorted, 0.99),
+                    percentile(sorted, 0.999),
+                    sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local TCP stand-in for the RF transceiver, for exercising {@link SerialConnection} without hardware.
+ * <p>
+ * Emits a mix of ChipCap2 sensor, heater controller (SHT15) and garage door frames at the target rate,
+ * sprinkled with error codes, junk bytes and frames addressed to someone else. Commands to the heater
+ * controller are answered with its status, commands to the garage door with the new door state, after a
+ * simulated air time.
+ * <p>
+ * Every well-formed frame carries a 4 byte sequence number behind its regular message, the decoders ignore
+ * it. {@link #sentAtNanos(int)} tells when the frame with a given sequence number was written, so that an
+ * observer in the same JVM can measure the latency until dispatch.
+ */
+public class TransceiverSimulator implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransceiverSimulator.class);
+
+    public static final int HEATER_ADDR = 27;
+    public static final int GARAGE_ADDR = 24;
+    private static final int MY_DST = 1;
+    private static final int SEQUENCE_SLOTS = 1 << 16;
+
+    public static class Profile {
+        public final double framesPerSecond;
+        // relative weights of the frame types
+        public final int chipCap2Weight;
+        public final int heaterWeight;
+        public final int garageWeight;
+        // probabilities per frame
+        public final double errorRate;
+        public final double junkRate;
+        public final double misaddressedRate;
+        public final long replyDelayMs;
+
+        public Profile(double framesPerSecond, int chipCap2Weight, int heaterWeight, int garageWeight, double errorRate, double junkRate, double misaddressedRate, long replyDelayMs) {
+            this.framesPerSecond = framesPerSecond;
+            this.chipCap2Weight = chipCap2Weight;
+            this.heaterWeight = heaterWeight;
+            this.garageWeight = garageWeight;
+            this.errorRate = errorRate;
+            this.junkRate = junkRate;
+            this.misaddressedRate = misaddressedRate;
+            this.replyDelayMs = replyDelayMs;
+        }
+
+        public static Profile fromConfig() {
+            return new Profile(
+                    Double.parseDouble(System.getProperty("SIM_RATE", "100")),
+                    Integer.parseInt(System.getProperty("SIM_CHIPCAP2_WEIGHT", "8")),
+                    Integer.parseInt(System.getProperty("SIM_HEATER_WEIGHT", "1")),
+                    Integer.parseInt(System.getProperty("SIM_GARAGE_WEIGHT", "1")),
+                    Double.parseDouble(System.getProperty("SIM_ERROR_RATE", "0.01")),
+                    Double.parseDouble(System.getProperty("SIM_JUNK_RATE", "0.001")),
+                    Double.parseDouble(System.getProperty("SIM_MISADDRESSED_RATE", "0.01")),
+                    Long.parseLong(System.getProperty("SIM_REPLY_DELAY_MS", "20")));
+        }
+    }
+
+    private final Profile profile;
+    private final ServerSocket serverSocket;
+    private final Random random = new Random(42);
+    private final AtomicLongArray sentAt = new AtomicLongArray(SEQUENCE_SLOTS);
+    private final Thread acceptThread;
+
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder errorsInjected = new LongAdder();
+    private final LongAdder junkInjected = new LongAdder();
+    private final LongAdder misaddressedSent = new LongAdder();
+    private final LongAdder commandsReceived = new LongAdder();
+
+    private volatile boolean running = true;
+    private volatile boolean heaterOn;
+    private volatile boolean garageDoorOpen;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * @param port 0 for any free port, see {@link #getPort()}
+     */
+    public TransceiverSimulator(int port, Profile profile) throws IOException {
+        this.profile = profile;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress("localhost", port));
+        this.acceptThread = new Thread(this::acceptTask, "simulatorAccept");
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+        logger.info("Simulating the transceiver on port " + getPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return System.nanoTime() when the frame with this sequence number was written, 0 if unknown
+     */
+    public long sentAtNanos(int sequence) {
+        return sentAt.get(sequence & (SEQUENCE_SLOTS - 1));
+    }
+
+    /**
+     * @return the sequence number of a frame sent by the simulator
+     */
+    public static int sequenceOf(SerialConnection.RfPacket p) {
+        int n = p.length();
+        return (p.u8(n - 4) << 24) | (p.u8(n - 3) << 16) | (p.u8(n - 2) << 8) | p.u8(n - 1);
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getErrorsInjected() {
+        return errorsInjected.sum();
+    }
+
+    public long getJunkInjected() {
+        return junkInjected.sum();
+    }
+
+    public long getMisaddressedSent() {
+        return misaddressedSent.sum();
+    }
+
+    public long getCommandsReceived() {
+        return commandsReceived.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void acceptTask() {
+        while (running) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setTcpNoDelay(true);
+                logger.info("Client connected from " + socket.getRemoteSocketAddress());
+                OutputStream out = socket.getOutputStream();
+                Thread commandThread = new Thread(() -> commandTask(socket, out), "simulatorCommands");
+                commandThread.setDaemon(true);
+                commandThread.start();
+                emitTask(out);
+            } catch (IOException e) {
+                if (running) {
+                    logger.info("Client gone - " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void emitTask(OutputStream out) throws IOException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / profile.framesPerSecond);
+        long next = System.nanoTime();
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        int[] sequences = new int[1000];
+        int totalWeight = profile.chipCap2Weight + profile.heaterWeight + profile.garageWeight;
+
+        while (running) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+
+            // everything which is due, written at once
+            batch.reset();
+            int count = 0;
+            while (next <= now && count < sequences.length) {
+                injectNoise(batch);
+                int pick = random.nextInt(totalWeight);
+                boolean misaddressed = random.nextDouble() < profile.misaddressedRate;
+                if (pick < profile.chipCap2Weight) {
+                    sequences[count] = writeFrame(batch, misaddressed, 2 + random.nextInt(13), chipCap2Message());
+                } else if (pick < profile.chipCap2Weight + profile.heaterWeight) {
+                    sequences[count] = writeFrame(batch, misaddressed, HEATER_ADDR, heaterMessage());
+                } else {
+                    sequences[count] = writeFrame(batch, misaddressed, GARAGE_ADDR, garageMessage());
+                }
+                next += intervalNanos;
+                count++;
+            }
+            synchronized (out) {
+                stamp(sequences, count);
+                out.write(batch.toByteArray());
+                out.flush();
+            }
+        }
+    }
+
+    private void commandTask(Socket socket, OutputStream out) {
+        try {
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            while (running) {
+                // commands are <dst>,<value>
+                int dst = in.read();
+                int value = in.read();
+                if (dst < 0 || value < 0) {
+                    return;
+                }
+                commandsReceived.increment();
+
+                byte[] message;
+                if (dst == HEATER_ADDR) {
+                    if (value == 2) {
+                        heaterOn = true;
+                    } else if (value == 3) {
+                        heaterOn = false;
+                    }
+                    message = heaterMessage();
+                } else if (dst == GARAGE_ADDR) {
+                    garageDoorOpen = value == 1;
+                    message = garageMessage();
+                } else {
+                    continue;
+                }
+
+                if (profile.replyDelayMs > 0) {
+                    Thread.sleep(profile.replyDelayMs);
+                }
+                reply.reset();
+                int seq = writeFrame(reply, false, dst, message);
+                synchronized (out) {
+                    stamp(new int[]{seq}, 1);
+                    out.write(reply.toByteArray());
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            logger.debug("Command reader done - " + e.getMessage());
+        }
+    }
+
+    private void stamp(int[] sequences, int count) {
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sentAt.set(sequences[i] & (SEQUENCE_SLOTS - 1), now);
+        }
+    }
+
+    private void injectNoise(ByteArrayOutputStream batch) {
+        if (random.nextDouble() < profile.errorRate) {
+            batch.write(1 + random.nextInt(255));
+            errorsInjected.increment();
+        }
+        if (random.nextDouble() < profile.junkRate) {
+            int n = 1 + random.nextInt(8);
+            for (int i = 0; i < n; i++) {
+                batch.write(random.nextInt(256));
+            }
+            junkInjected.increment();
+        }
+    }
+
+    /**
+     * Writes <errorCode=0>,<dst>,<from>,<msgLen>,msg...,seq
+     *
+     * @return the sequence number of the frame
+     */
+    private int writeFrame(ByteArrayOutputStream target, boolean misaddressed, int from, byte[] message) {
+        int seq = sequence.getAndIncrement();
+        target.write(0);
+        target.write(misaddressed ? MY_DST + 1 : MY_DST);
+        target.write(from);
+        target.write(message.length + 4);
+        target.write(message, 0, message.length);
+        target.write(seq >>> 24);
+        target.write(seq >>> 16);
+        target.write(seq >>> 8);
+        target.write(seq);
+        framesSent.increment();
+        if (misaddressed) {
+            misaddressedSent.increment();
+        }
+        return seq;
+    }
+
+    private byte[] chipCap2Message() {
+        // humidity, temperature and light, battery as ADC values, then the counter
+        int humidity = (int) ((40 + random.nextInt(20)) / 100D * 16384);
+        int temperature = (int) ((20 + random.nextInt(5) + 40) / 165D * 16384);
+        int light = random.nextInt(1024);
+        int battery = 400 + random.nextInt(50);
+        return new byte[]{
+                (byte) (humidity >> 8), (byte) humidity,
+                (byte) (temperature >> 8), (byte) temperature,
+                (byte) (light >> 8), (byte) light,
+                (byte) (battery >> 8), (byte) battery,
+                (byte) random.nextInt(256)
+        };
+    }
+
+    private byte[] heaterMessage() {
+        // SHT15 raw values: 21.9 degrees and about 45%, then the heater state
+        int temperature = 6200;
+        int humidity = 1500;
+        return new byte[]{
+                (byte) (temperature >> 8), (byte) temperature,
+                (byte) (humidity >> 8), (byte) humidity,
+                (byte) (heaterOn ? 1 : 0)
+        };
+    }
+
+    private byte[] garageMessage() {
+        // three little endian ADC channels: light (0 is on), broken, door (>100 is open)
+        int light = 500;
+        int door = garageDoorOpen ? 800 : 20;
+        return new byte[]{
+                (byte) light, (byte) (light >> 8),
+                0, 0,
+                (byte) door, (byte) (door >> 8)
+        };
+    }
+}
@@ -24,12 +24,7 @@ public class GetHeaterStatusEndpoint extends AbstractRestHandler {
             JSONObject body,
             BiConsumer<Integer, Object> onDone) {
 
-        JSONObject result = new JSONObject();
-        result.put("mode", heatingControllerService.getCurrentMode());
-        result.put("target_temperature", heatingControllerService.getTargetTemperature());
-        result.put("target_heater_status", heatingControllerService.getConfiguredHeaterTarget());
-
-        onDone.accept(200, result);
+        onDone.accept(200, heatingControllerService.getStatus().toJson());
 
     }
 }
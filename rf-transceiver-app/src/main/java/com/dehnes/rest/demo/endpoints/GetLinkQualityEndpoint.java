@@ -0,0 +1,45 @@
+package com.dehnes.rest.demo.endpoints;
+
+import com.dehnes.rest.demo.services.LinkQualityTracker;
+import com.dehnes.rest.server.AbstractRestHandler;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Received, lost and duplicate packets, arrival interval and jitter and the last contact of every sensor, by
+ * address.
+ */
+public class GetLinkQualityEndpoint extends AbstractRestHandler {
+
+    private final LinkQualityTracker linkQualityTracker;
+
+    public GetLinkQualityEndpoint(LinkQualityTracker linkQualityTracker) {
+        this.linkQualityTracker = linkQualityTracker;
+    }
+
+    @Override
+    public void handle(String requestURI, List<String> fields, Map<String, String[]> params, JSONObject body, BiConsumer<Integer, Object> onDone) {
+        long now = System.currentTimeMillis();
+
+        JSONObject result = new JSONObject();
+        for (LinkQualityTracker.Link link : linkQualityTracker.getLinks()) {
+            result.put(String.valueOf(link.getAddress()), new JSONObject()
+                    .put("name", link.getName() == null ? JSONObject.NULL : link.getName())
+                    .put("received", link.getReceived())
+                    .put("lost", link.getLost())
+                    .put("duplicates", link.getDuplicates())
+                    .put("restarts", link.getRestarts())
+                    .put("loss_ratio", link.getLossRatio())
+                    .put("last_counter", link.getLastCounter())
+                    .put("last_seen", link.getLastSeen())
+                    .put("seconds_since_last_seen", (now - link.getLastSeen()) / 1000)
+                    .put("mean_interval_ms", Math.round(link.getMeanIntervalMs()))
+                    .put("jitter_ms", Math.round(link.getJitterMs())));
+        }
+
+        onDone.accept(200, result);
+    }
+}
@@ -0,0 +1,57 @@
+package com.dehnes.rest.demo.endpoints;
+
+import com.dehnes.rest.demo.services.RollingWindow;
+import com.dehnes.rest.demo.services.SensorStateStore;
+import com.dehnes.rest.server.AbstractRestHandler;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Mean, min, max, latest value and rate of change per hour of every field during the last hour, for all rooms
+ * or for the room in the path.
+ */
+public class GetSensorAggregatesEndpoint extends AbstractRestHandler {
+
+    private final SensorStateStore sensorStateStore;
+
+    public GetSensorAggregatesEndpoint(SensorStateStore sensorStateStore) {
+        this.sensorStateStore = sensorStateStore;
+    }
+
+    @Override
+    public void handle(String requestURI, List<String> fields, Map<String, String[]> params, JSONObject body, BiConsumer<Integer, Object> onDone) {
+        Collection<String> rooms = fields.isEmpty() ? sensorStateStore.getRooms() : Collections.singleton(fields.get(0));
+
+        JSONObject result = new JSONObject();
+        for (String room : rooms) {
+            JSONObject roomResult = new JSONObject();
+            for (String field : sensorStateStore.getFields(room)) {
+                RollingWindow.Aggregate aggregate = sensorStateStore.aggregate(room, field);
+                if (aggregate != null) {
+                    roomResult.put(field, new JSONObject()
+                            .put("latest", aggregate.getLatest())
+                            .put("latest_timestamp", aggregate.getLatestTimestamp())
+                            .put("mean", aggregate.getMean())
+                            .put("min", aggregate.getMin())
+                            .put("max", aggregate.getMax())
+                            .put("rate_per_hour", aggregate.getRatePerHour())
+                            .put("count", aggregate.getCount()));
+                }
+            }
+            if (!roomResult.isEmpty()) {
+                result.put(room, roomResult);
+            }
+        }
+
+        if (!fields.isEmpty() && result.isEmpty()) {
+            onDone.accept(404, "No data for " + fields.get(0));
+        } else {
+            onDone.accept(200, result);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.dehnes.rest.demo.endpoints;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable in-memory snapshot of the static assets.
+ * <p>
+ * At startup all resources below static/ on the classpath are loaded, overlaid by the files in the static
+ * directory on disk. Each asset keeps its content and a gzip variant (if smaller) in direct buffers together
+ * with its MIME type, ETag and Last-Modified, so that serving it needs neither disk access nor compression.
+ * The directory on disk is watched and the snapshot is rebuilt when something in it changes.
+ */
+public class StaticAssetCache {
+    private static final Logger logger = LoggerFactory.getLogger(StaticAssetCache.class);
+
+    public static final String ROOT_PATH = "static";
+
+    private final File rootDir = new File(ROOT_PATH);
+    private final Map<String, Asset> classpathAssets;
+    private volatile Map<String, Asset> assets;
+
+    private volatile WatchService watchService;
+    private volatile Thread watcherThread;
+
+    public StaticAssetCache() {
+        this.classpathAssets = loadClasspath();
+        this.assets = withDiskOverlay();
+        logger.info("Cached " + assets.size() + " static assets");
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (watcherThread != null || !rootDir.isDirectory()) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerAll(rootDir.toPath());
+        } catch (IOException e) {
+            logger.warn("Cannot watch " + rootDir.getAbsolutePath() + " for changes", e);
+            return;
+        }
+        watcherThread = new Thread(this::watchTask, "staticAssetWatcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (watcherThread == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        watcherThread = null;
+    }
+
+    /**
+     * @param path the request path, like /index.html
+     * @return the asset or null if there is none
+     */
+    public Asset get(String path) {
+        return assets.get(path);
+    }
+
+    private void watchTask() {
+        while (watcherThread != null) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    Path created = dir.resolve((Path) event.context());
+                    if (Files.isDirectory(created)) {
+                        try {
+                            registerAll(created);
+                        } catch (IOException e) {
+                            logger.warn("Cannot watch " + created, e);
+                        }
+                    }
+                }
+            }
+            key.reset();
+
+            assets = withDiskOverlay();
+            logger.info("Static assets changed on disk, re-cached " + assets.size() + " assets");
+        }
+    }
+
+    private void registerAll(Path dir) throws IOException {
+        try (Stream<Path> dirs = Files.walk(dir)) {
+            for (Path d : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                d.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private Map<String, Asset> withDiskOverlay() {
+        Map<String, Asset> result = new HashMap<>(classpathAssets);
+        if (rootDir.isDirectory()) {
+            Path root = rootDir.toPath();
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(Files::isRegularFile).forEach(f -> {
+                    try {
+                        String path = "/" + root.relativize(f).toString().replace(File.separatorChar, '/');
+                        result.put(path, Asset.create(path, Files.readAllBytes(f), Files.getLastModifiedTime(f).toMillis()));
+                    } catch (IOException e) {
+                        logger.warn("Could not read " + f, e);
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("Could not read " + rootDir.getAbsolutePath(), e);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Map<String, Asset> loadClasspath() {
+        Map<String, Asset> result = new HashMap<>();
+        URL url = StaticAssetCache.class.getClassLoader().getResource(ROOT_PATH);
+        if (url == null) {
+            return result;
+        }
+
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                JarFile jarFile = ((JarURLConnection) url.openConnection()).getJarFile();
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (entry.isDirectory() || !entry.getName().startsWith(ROOT_PATH + "/")) {
+                        continue;
+                    }
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        String path = entry.getName().substring(ROOT_PATH.length());
+                        result.put(path, Asset.create(path, IOUtils.toByteArray(in), entry.getTime()));
+                    }
+                }
+            } else {
+                Path root = Paths.get(url.toURI());
+                try (Stream<Path> files = Files.walk(root)) {
+                    for (Path f : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                        String path = "/" + root.relativize(f).toString().replace(File.separatorChar, '/');
+                        result.put(path, Asset.create(path, Files.readAllBytes(f), Files.getLastModifiedTime(f).toMillis()));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Could not load static assets from " + url, e);
+        }
+        return result;
+    }
+
+    public static class Asset {
+        private final String contentType;
+        private final ByteBuffer content;
+        private final ByteBuffer gzipContent;
+        private final String etag;
+        private final String gzipEtag;
+        private final long lastModified;
+        private final String lastModifiedHeader;
+
+        private Asset(String contentType, ByteBuffer content, ByteBuffer gzipContent, String etag, long lastModified) {
+            this.contentType = contentType;
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.etag = "\"" + etag + "\"";
+            this.gzipEtag = "\"" + etag + "--gzip\"";
+            this.lastModified = lastModified;
+            this.lastModifiedHeader = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC));
+        }
+
+        static Asset create(String path, byte[] content, long lastModified) throws IOException {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            String contentType = StaticFileFetcher.filenameToMimeType(fileName);
+            if (contentType == null) {
+                contentType = URLConnection.guessContentTypeFromName(fileName);
+            }
+            if (contentType == null) {
+                contentType = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(content));
+            }
+            if (contentType == null) {
+                contentType = "application/octet-stream";
+            }
+
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+                gzip.write(content);
+            }
+
+            return new Asset(
+                    contentType,
+                    toDirectBuffer(content),
+                    gzipped.size() < content.length ? toDirectBuffer(gzipped.toByteArray()) : null,
+                    hash(content),
+                    // HTTP dates have a resolution of seconds
+                    (lastModified / 1000) * 1000
+            );
+        }
+
+        private static ByteBuffer toDirectBuffer(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            return buffer.asReadOnlyBuffer();
+        }
+
+        private static String hash(byte[] content) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 8; i++) {
+                    sb.append(String.format("%02x", digest[i]));
+                }
+                return sb.toString();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return a duplicate of the content, safe to consume
+         */
+        public ByteBuffer getContent() {
+            return content.duplicate();
+        }
+
+        /**
+         * @return a duplicate of the gzipped content or null if compressing does not pay off
+         */
+        public ByteBuffer getGzipContent() {
+            return gzipContent == null ? null : gzipContent.duplicate();
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getGzipEtag() {
+            return gzipEtag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getLastModifiedHeader() {
+            return lastModifiedHeader;
+        }
+    }
+}
@@ -1,77 +1,92 @@
 package com.dehnes.rest.demo.endpoints;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.net.URLConnection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.HttpOutput;
 
 import com.dehnes.rest.server.config.TriConsumer;
 
+/**
+ * Serves the static assets from the {@link StaticAssetCache}, gzipped if the client accepts it and with
+ * support for conditional GETs. Paths without asset are left uncommitted for the next route.
+ */
 public class StaticFileFetcher implements TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> {
 
-    public static final String ROOT_PATH = "static";
+    private final StaticAssetCache staticAssetCache;
+
+    public StaticFileFetcher(StaticAssetCache staticAssetCache) {
+        this.staticAssetCache = staticAssetCache;
+    }
 
     @Override
-    public void accept(HttpServletRequest request, HttpServletResponse httpServletResponse, List<String> strings) {
-        String file = ROOT_PATH + request.getRequestURI();
-        String[] split = file.split("/");
-        String fileName = split[split.length - 1];
+    public void accept(HttpServletRequest request, HttpServletResponse response, List<String> strings) {
+        StaticAssetCache.Asset asset = staticAssetCache.get(request.getRequestURI());
+        if (asset == null) {
+            return; // no directory listings either
+        }
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        ByteBuffer gzipContent = asset.getGzipContent();
+        boolean gzip = gzipContent != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+        String etag = gzip ? asset.getGzipEtag() : asset.getEtag();
 
-        if (file.endsWith("/")) {
-            return; // no directory listings
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", asset.getLastModifiedHeader());
+        response.setHeader("Cache-Control", "no-cache");
+        if (gzipContent != null) {
+            response.setHeader("Vary", "Accept-Encoding");
         }
 
         try {
+            if (isNotModified(request, asset, etag)) {
+                response.setStatus(304);
+                response.flushBuffer();
+                return;
+            }
 
-            InputStream stream;
-            if (new File(file).exists()) {
-                stream = new FileInputStream(file);
-            } else {
-                stream = StaticFileFetcher.class.getClassLoader().getResourceAsStream(file);
+            ByteBuffer content = gzip ? gzipContent : asset.getContent();
+            response.setStatus(200);
+            response.setContentType(asset.getContentType());
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip");
             }
+            response.setContentLength(content.remaining());
 
-            if (stream != null) {
-                File f = File.createTempFile("testProxy", fileName);
-                FileOutputStream out = new FileOutputStream(f);
-                IOUtils.copy(stream, out);
-                out.flush();
-                out.close();
-
-                String s = filenameToMimeType(fileName);
-                if (s == null) {
-                    s = URLConnection.guessContentTypeFromName(f.getAbsolutePath());
-                }
-                if (s == null) {
-                    FileInputStream fileInputStream = new FileInputStream(f);
-                    s = URLConnection.guessContentTypeFromStream(fileInputStream);
-                    fileInputStream.close();
-                }
-
-                httpServletResponse.setStatus(200);
-                httpServletResponse.setContentType(s);
-                ServletOutputStream outputStream = httpServletResponse.getOutputStream();
-                FileInputStream input = new FileInputStream(f);
-                IOUtils.copy(input, outputStream);
-                input.close();
-                outputStream.flush();
+            ServletOutputStream outputStream = response.getOutputStream();
+            if (outputStream instanceof HttpOutput) {
+                // writes straight from the direct buffer
+                ((HttpOutput) outputStream).sendContent(content);
+            } else {
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                outputStream.write(bytes);
                 outputStream.close();
-
-                //noinspection ResultOfMethodCallIgnored
-                f.delete();
             }
-        } catch (Exception e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static boolean isNotModified(HttpServletRequest request, StaticAssetCache.Asset asset, String etag) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since
+            return ifNoneMatch.equals("*") || ifNoneMatch.contains(etag);
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && asset.getLastModified() <= ifModifiedSince;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     public static String filenameToMimeType(String fileName) {
         if (fileName.endsWith(".html") || fileName.endsWith(".htm")) {
             return "text/html";
@@ -81,6 +96,14 @@ public class StaticFileFetcher implements TriConsumer<HttpServletRequest, HttpSe
             return "image/png";
         } else if (fileName.endsWith(".css")) {
             return "text/css";
+        } else if (fileName.endsWith(".svg")) {
+            return "image/svg+xml";
+        } else if (fileName.endsWith(".woff")) {
+            return "font/woff";
+        } else if (fileName.endsWith(".ttf")) {
+            return "font/ttf";
+        } else if (fileName.endsWith(".eot")) {
+            return "application/vnd.ms-fontobject";
         }
 
         return null;
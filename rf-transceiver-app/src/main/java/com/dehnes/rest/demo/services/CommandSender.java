@@ -1,44 +1,93 @@
 package com.dehnes.rest.demo.services;
 
 import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import com.dehnes.rest.server.metrics.Counter;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class CommandSender {
     private static final Logger LOGGER = LoggerFactory.getLogger(CommandSender.class);
 
     private final SerialConnection serialConnection;
+    // bumped per address by every command replacing pending ones, stops the retries of older commands
+    private final AtomicIntegerArray generations = new AtomicIntegerArray(256);
 
-    public CommandSender(SerialConnection serialConnection) {
+    private final Counter commands;
+    private final Counter retries;
+    private final Counter failures;
+
+    public CommandSender(SerialConnection serialConnection, MetricsRegistry metricsRegistry) {
         this.serialConnection = serialConnection;
+        this.commands = metricsRegistry.counter("rf_commands_total", "Commands sent by the CommandSender");
+        this.retries = metricsRegistry.counter("rf_command_retries_total", "Repetitions of commands sent with retries");
+        this.failures = metricsRegistry.counter("rf_command_failures_total", "Commands whose last attempt was not written or which were replaced");
     }
 
     public boolean sendValue(int rfAddr, int value, boolean withRetries) {
-        boolean result = false;
-        try {
-            result = sendValueNow(rfAddr, value);
-
-            if (withRetries) {
-                Thread.sleep(100);
-                result = sendValueNow(rfAddr, value);
-                Thread.sleep(100);
-                result = sendValueNow(rfAddr, value);
-                Thread.sleep(100);
-            }
-
-        } catch (Exception e) {
-            LOGGER.error("", e);
+        return sendValue(rfAddr, value, withRetries, false);
+    }
+
+    public boolean sendValue(int rfAddr, int value, boolean withRetries, boolean replacePending) {
+        return sendValueAsync(rfAddr, value, withRetries, replacePending).join();
+    }
+
+    /**
+     * Sends the value without blocking the caller. With retries, the value is sent two more times, each
+     * one queued once the previous one was written, so the repetitions are paced by the serial connection.
+     *
+     * @param replacePending if true, commands still pending for this address are dropped and their retries stopped
+     * @return completes with the result of the last attempt
+     */
+    public CompletableFuture<Boolean> sendValueAsync(int rfAddr, int value, boolean withRetries, boolean replacePending) {
+        int generation = replacePending
+                ? generations.incrementAndGet(rfAddr & 0xFF)
+                : generations.get(rfAddr & 0xFF);
+
+        commands.increment();
+        CompletableFuture<Boolean> result = sendValueNow(rfAddr, value, replacePending);
+
+        if (withRetries) {
+            result = result
+                    .thenCompose(r -> retry(rfAddr, value, generation, r))
+                    .thenCompose(r -> retry(rfAddr, value, generation, r));
+        }
+
+        return result
+                .exceptionally(e -> {
+                    if (e instanceof CancellationException || e.getCause() instanceof CancellationException) {
+                        LOGGER.info("Command " + value + " to addr: " + rfAddr + " was replaced");
+                    } else {
+                        LOGGER.error("", e);
+                    }
+                    return false;
+                })
+                .whenComplete((r, e) -> {
+                    if (!r) {
+                        failures.increment();
+                    }
+                    LOGGER.info("Send result " + r + " of command " + value + " to addr: " + rfAddr);
+                });
+    }
+
+    private CompletableFuture<Boolean> retry(int rfAddr, int value, int generation, boolean previousResult) {
+        if (generations.get(rfAddr & 0xFF) != generation) {
+            // a newer command replaced this one
+            return CompletableFuture.completedFuture(previousResult);
         }
-        LOGGER.info("Send result " + result + " of command " + value + " to addr: " + rfAddr);
-        return result;
+        retries.increment();
+        return sendValueNow(rfAddr, value, false);
     }
 
-    private boolean sendValueNow(int rfAddr, int value) {
-        return serialConnection.send(new SerialConnection.RfPacket(
+    private CompletableFuture<Boolean> sendValueNow(int rfAddr, int value, boolean replacePending) {
+        return serialConnection.sendAsync(new SerialConnection.RfPacket(
                 rfAddr, new int[]{value}
-        ), 5, TimeUnit.SECONDS);
+        ), replacePending).completeOnTimeout(false, 5, TimeUnit.SECONDS);
     }
 
 
@@ -1,116 +1,64 @@
 package com.dehnes.rest.demo.services;
 
-import com.dehnes.rest.demo.clients.influxdb.InfluxDBConnector;
+import com.dehnes.rest.demo.clients.serial.OutboundScheduler;
 import com.dehnes.rest.demo.clients.serial.SerialConnection;
-import com.dehnes.rest.demo.utils.ByteTools;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.dehnes.rest.demo.services.sensors.SensorRegistry;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
-import java.util.Arrays;
 import java.util.Optional;
-import java.util.function.Function;
+import java.util.OptionalDouble;
 
+/**
+ * Opens and closes the garage door. Its packets are recorded by the {@link SensorService}, the sensor is configured
+ * in the {@link SensorRegistry} as GARAGE_DOOR_SENSOR, by default garage_door.
+ */
 public class GarageDoorService {
-    private static final Logger logger = LoggerFactory.getLogger(GarageDoorService.class);
-    private static final int sender_id = 24;
+    private static final String SENSOR_NAME = System.getProperty("GARAGE_DOOR_SENSOR", "garage_door");
 
-    private final String dbType = "garage";
+    private final int senderId;
+    private final String room;
     private final SerialConnection serialConnection;
-    private final Function<SerialConnection.RfPacket, Boolean> listener;
-    private final InfluxDBConnector influxDBConnector;
+    private final SensorStateStore sensorStateStore;
     private final CommandSender commandSender;
 
-    public GarageDoorService(SerialConnection serialConnection, InfluxDBConnector influxDBConnector, CommandSender commandSender) {
+    public GarageDoorService(SerialConnection serialConnection, SensorStateStore sensorStateStore, CommandSender commandSender, SensorRegistry sensorRegistry) {
         this.serialConnection = serialConnection;
-        this.influxDBConnector = influxDBConnector;
+        this.sensorStateStore = sensorStateStore;
         this.commandSender = commandSender;
-        listener = this::handleIncoming;
+        SensorRegistry.Sensor sensor = sensorRegistry.getByName(SENSOR_NAME);
+        this.senderId = sensor.getAddress();
+        this.room = sensor.getName();
     }
 
     @PostConstruct
     public void start() {
-        serialConnection.registerListener(listener);
-    }
-
-    @PreDestroy
-    public void stop() {
-        serialConnection.unregisterListener(listener);
-    }
-
-    private boolean handleIncoming(SerialConnection.RfPacket rfPacket) {
-        if (rfPacket.getRemoteAddr() != sender_id) {
-            return false;
-        }
-
-        /*
-         * ch1 light
-         * 0  : ON
-         * >0 : OFF
-         *
-         * ch2 broken
-         *
-         * ch3
-         * >100 : door is not closed
-         * <100 : door is closed
-         */
-        int[] msg = rfPacket.getMessage();
-        int ch1 = ByteTools.merge(msg[0], msg[1]);
-        //int ch2 = ByteTools.merge(msg[2], msg[3]);
-        int ch3 = ByteTools.merge(msg[4], msg[5]);
-
-        boolean lightIsOn = true;
-        if (ch1 > 10) {
-            lightIsOn = false;
-        }
-
-        boolean doorIsOpen = false;
-        if (ch3 > 100) {
-            doorIsOpen = true;
-        }
-
-        logger.info("Garage door. Light=" + lightIsOn + ", Door=" + doorIsOpen);
-
-        influxDBConnector.recordSensorData(dbType, Optional.<InfluxDBConnector.KeyValue>empty(), Arrays.asList(
-                new InfluxDBConnector.KeyValue("light", String.valueOf(lightIsOn)),
-                new InfluxDBConnector.KeyValue("door", String.valueOf(doorIsOpen))
-        ));
-
-        return true;
+        serialConnection.setPriority(senderId, OutboundScheduler.Priority.INTERACTIVE);
     }
 
     public boolean sendOpenCommand() {
-        return commandSender.sendValue(sender_id, 1, true);
+        return commandSender.sendValue(senderId, 1, true, true);
     }
 
     public boolean sendCloseCommand() {
-        return commandSender.sendValue(sender_id, 2, true);
+        return commandSender.sendValue(senderId, 2, true, true);
     }
 
     public Optional<StatusRecord> getCurrentState() {
-        long min = System.currentTimeMillis() - (3600 * 1000); // 60min back in time
-        JSONObject json = influxDBConnector.queryRaw(dbType, Optional.empty(), Optional.of(min), Optional.empty(), 1);
-        JSONArray results = json.optJSONArray("results");
-        if (results != null && results.length() > 0) {
-            JSONObject result = results.getJSONObject(0);
-            JSONArray series = result.optJSONArray("series");
-            if (series != null && series.length() > 0) {
-                JSONObject serie = series.getJSONObject(0);
-                JSONArray values = serie.optJSONArray("values");
-                if (values != null && values.length() > 0) {
-                    JSONArray entry = values.getJSONArray(values.length() - 1);
-                    boolean door = entry.getBoolean(1);
-                    boolean light = entry.getBoolean(2);
-                    return Optional.of(new StatusRecord(light, door));
-                }
-            }
+        OptionalDouble light = sensorStateStore.latest(room, "light");
+        OptionalDouble door = sensorStateStore.latest(room, "door");
+        if (light.isPresent() && door.isPresent()) {
+            return Optional.of(new StatusRecord(light.getAsDouble() > 0, door.getAsDouble() > 0));
         }
         return Optional.empty();
     }
 
+    /**
+     * @return a counter which changes whenever the state may have changed
+     */
+    public long getVersion() {
+        return sensorStateStore.getVersion(room);
+    }
+
     public static class StatusRecord {
         private final boolean lightIsOn;
         private final boolean doorIsOpen;
@@ -1,18 +1,26 @@
 package com.dehnes.rest.demo.services;
 
 import com.dehnes.rest.demo.clients.influxdb.InfluxDBConnector;
+import com.dehnes.rest.demo.clients.influxdb.LineProtocolEncoder;
+import com.dehnes.rest.demo.clients.serial.OutboundScheduler;
 import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import com.dehnes.rest.demo.services.sensors.SensorDecoder;
+import com.dehnes.rest.demo.services.sensors.SensorRegistry;
 import com.dehnes.rest.demo.utils.MathTools;
 import com.dehnes.rest.demo.utils.Tuple;
+import com.dehnes.rest.server.metrics.Counter;
+import com.dehnes.rest.server.metrics.Histogram;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 @SuppressWarnings("WeakerAccess")
 public class HeatingControllerService {
@@ -21,43 +29,79 @@ public class HeatingControllerService {
     private static final String HEATER_STATUS_KEY = "HeatingControllerService.heaterTarget";
     private static final String OPERATING_MODE = "HeatingControllerService.operatingMode";
 
-    private static final int COMMAND_READ_STATUS = 1;
-    private static final int COMMAND_SWITCH_ON_HEATER = 2;
-    private static final int COMMAND_SWITCH_OFF_HEATER = 3;
+    static final int COMMAND_READ_STATUS = 1;
+    static final int COMMAND_SWITCH_ON_HEATER = 2;
+    static final int COMMAND_SWITCH_OFF_HEATER = 3;
 
     private static final long holdOffInMillis = TimeUnit.MINUTES.toMillis(10); // no need to switch more often
     //private static final long holdOffInMillis = TimeUnit.MINUTES.toMillis(0); // no need to switch more often
 
-    private static final int senderId = 27;
-    private static final int maxRetries = 10;
+    private static final String SENSOR_NAME = System.getProperty("HEATER_SENSOR", "heating_controller");
+    private static final int maxAttempts = 5;
+    private static final long replyTimeoutMs = Long.parseLong(System.getProperty("HEATER_REPLY_TIMEOUT_MS", "500"));
+    // all attempts, including the time waiting to be sent, must never hold up a tick for longer
+    // how far ahead the outside temperature is anticipated, the house only slowly follows a change
+    private static final long anticipationMs = Long.parseLong(System.getProperty("HEATER_ANTICIPATION_MS", String.valueOf(TimeUnit.HOURS.toMillis(1))));
+    private static final long requestTimeoutMs = Long.parseLong(System.getProperty("HEATER_REQUEST_TIMEOUT_MS", "60000"));
 
     private final AtomicInteger failedAttempts = new AtomicInteger();
+    private final CopyOnWriteArrayList<StatusListener> listeners = new CopyOnWriteArrayList<>();
 
     private long lastSwitchedTimestamp = 0;
+    // the last valid measurement, guarded by this
+    private Integer lastTemperature;
+    private Boolean lastHeaterStatus;
+    private long lastMeasurementTimestamp;
+
+    // replaced after every change, so that reading the status never waits for a tick in flight
+    private volatile Status status;
 
     private final TibberService tibberService;
     private final PersistenceService persistenceService;
     private final ScheduledExecutorService timer;
-    private final CommandSender commandSender;
     private final SerialConnection serialConnection;
     private final InfluxDBConnector influxDBConnector;
-    private final LinkedBlockingQueue<SerialConnection.RfPacket> received = new LinkedBlockingQueue<>();
+    private final SensorStateStore sensorStateStore;
+    private final int senderId;
+    private final SensorRegistry.Sensor sensor;
+    private final int temperatureField;
+    private final int heaterStatusField;
+    // guarded by this
+    private final int[] values;
+    private final Counter commandsAnswered;
+    private final Counter commandsUnanswered;
+    private final Histogram commandDuration;
 
     private volatile ScheduledFuture<?> task;
 
     public HeatingControllerService(
             PersistenceService persistenceService,
-            CommandSender commandSender,
             SerialConnection serialConnection,
             InfluxDBConnector influxDBConnector,
-            TibberService tibberService) {
+            SensorStateStore sensorStateStore,
+            TibberService tibberService,
+            MetricsRegistry metricsRegistry,
+            SensorRegistry sensorRegistry) {
 
         this.tibberService = tibberService;
         this.persistenceService = persistenceService;
-        this.commandSender = commandSender;
         this.serialConnection = serialConnection;
         this.influxDBConnector = influxDBConnector;
+        this.sensorStateStore = sensorStateStore;
         this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.sensor = sensorRegistry.getByName(SENSOR_NAME);
+        this.senderId = sensor.getAddress();
+        this.temperatureField = sensor.getDecoder().indexOf("temperature");
+        this.heaterStatusField = sensor.getDecoder().indexOf("heater_status");
+        if (temperatureField < 0 || heaterStatusField < 0) {
+            throw new RuntimeException("The sensor " + SENSOR_NAME + " needs the fields temperature and heater_status");
+        }
+        this.values = new int[sensor.getDecoder().getFieldCount()];
+        this.commandsAnswered = metricsRegistry.counter("heater_commands_total", "Commands to the heater controller", "result", "answered");
+        this.commandsUnanswered = metricsRegistry.counter("heater_commands_total", "Commands to the heater controller", "result", "unanswered");
+        this.commandDuration = metricsRegistry.histogram("heater_command_duration_seconds", "Time until the heater controller answered a command, including repetitions");
+        metricsRegistry.gauge("heater_failed_attempts", "Commands in a row the heater controller did not answer", failedAttempts::get);
+        publishStatus();
     }
 
     @PostConstruct
@@ -65,7 +109,8 @@ public class HeatingControllerService {
         if (task != null) {
             throw new RuntimeException("Already started");
         }
-        serialConnection.registerListener(this::handleIncoming);
+        // unsolicited status packets are recorded by the SensorService
+        serialConnection.setPriority(senderId, OutboundScheduler.Priority.BACKGROUND);
         task = timer.scheduleWithFixedDelay(() -> {
             try {
                 tick();
@@ -83,50 +128,105 @@ public class HeatingControllerService {
 
         task.cancel(false);
         task = null;
-        serialConnection.unregisterListener(this::handleIncoming);
     }
 
-    public synchronized String getConfiguredHeaterTarget() {
-        return persistenceService.get(HEATER_STATUS_KEY, "off");
+    public String getConfiguredHeaterTarget() {
+        return status.getConfiguredHeaterTarget();
     }
 
     public synchronized boolean switchOn() {
         logger.info("Moving to permanent mode: on");
-        persistenceService.set(OPERATING_MODE, Mode.ON.name());
+        persist(OPERATING_MODE, Mode.ON.name());
         return tick();
     }
 
     public synchronized boolean switchOff() {
         logger.info("Moving to permanent mode: off");
-        persistenceService.set(OPERATING_MODE, Mode.OFF.name());
+        persist(OPERATING_MODE, Mode.OFF.name());
         return tick();
     }
 
     public synchronized boolean manualMode(int targetTemp) {
         logger.info("Moving to mode: manual (target: " + MathTools.divideBy100(targetTemp) + ")");
         lastSwitchedTimestamp = 0;
-        persistenceService.set(OPERATING_MODE, Mode.MANUAL.name());
-        persistenceService.set(TARGET_TEMP_KEY, String.valueOf(targetTemp));
+        persist(OPERATING_MODE, Mode.MANUAL.name());
+        persist(TARGET_TEMP_KEY, String.valueOf(targetTemp));
         return tick();
     }
 
     public synchronized boolean automaticMode() {
         logger.info("Moving to mode: automatic");
         lastSwitchedTimestamp = 0;
-        persistenceService.set(OPERATING_MODE, Mode.AUTOMATIC.name());
+        persist(OPERATING_MODE, Mode.AUTOMATIC.name());
         return tick();
     }
 
-    public synchronized Mode getCurrentMode() {
-        return Mode.valueOf(persistenceService.get(OPERATING_MODE, Mode.AUTOMATIC.name()));
+    public Mode getCurrentMode() {
+        return status.getMode();
+    }
+
+    public int getTargetTemperature() {
+        return status.getTargetTemperature();
+    }
+
+    /**
+     * @return the current state, never blocks
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return a counter which changes whenever the status changes
+     */
+    public long getVersion() {
+        return status.getVersion();
+    }
+
+    public interface StatusListener {
+        void onStatus(Status status);
+    }
+
+    /**
+     * The listener is called with every new status, e.g. a changed mode, target or measurement.
+     */
+    public void addStatusListener(StatusListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeStatusListener(StatusListener listener) {
+        listeners.remove(listener);
     }
 
-    public synchronized int getTargetTemperature() {
-        return Integer.valueOf(persistenceService.get(TARGET_TEMP_KEY, String.valueOf(25 * 100)));
+    private void persist(String key, String value) {
+        if (!value.equals(persistenceService.get(key, null))) {
+            persistenceService.set(key, value);
+            publishStatus();
+        }
+    }
+
+    private synchronized void publishStatus() {
+        Status previous = status;
+        status = new Status(
+                previous == null ? 1 : previous.getVersion() + 1,
+                Mode.valueOf(persistenceService.get(OPERATING_MODE, Mode.AUTOMATIC.name())),
+                Integer.parseInt(persistenceService.get(TARGET_TEMP_KEY, String.valueOf(25 * 100))),
+                persistenceService.get(HEATER_STATUS_KEY, "off"),
+                lastTemperature,
+                lastHeaterStatus,
+                lastMeasurementTimestamp,
+                failedAttempts.get());
+        for (StatusListener listener : listeners) {
+            try {
+                listener.onStatus(status);
+            } catch (Exception e) {
+                logger.error("", e);
+            }
+        }
     }
 
     private void setTargetTemperatureInternal(int targetTemp) {
-        persistenceService.set(TARGET_TEMP_KEY, String.valueOf(targetTemp));
+        persist(TARGET_TEMP_KEY, String.valueOf(targetTemp));
     }
 
     private synchronized boolean tick() {
@@ -160,18 +260,18 @@ public class HeatingControllerService {
 
                 if (energyPriceOK && tuple.a < targetTemperature) {
                     logger.info("Setting heater to on");
-                    persistenceService.set(HEATER_STATUS_KEY, "on");
+                    persist(HEATER_STATUS_KEY, "on");
                     lastSwitchedTimestamp = System.currentTimeMillis();
                 } else {
                     logger.info("Setting heater to off. energyPriceOK={}", energyPriceOK);
-                    persistenceService.set(HEATER_STATUS_KEY, "off");
+                    persist(HEATER_STATUS_KEY, "off");
                     lastSwitchedTimestamp = System.currentTimeMillis();
                 }
             }
         } else if (currentMode == Mode.OFF) {
-            persistenceService.set(HEATER_STATUS_KEY, "off");
+            persist(HEATER_STATUS_KEY, "off");
         } else if (currentMode == Mode.ON) {
-            persistenceService.set(HEATER_STATUS_KEY, "on");
+            persist(HEATER_STATUS_KEY, "on");
         }
 
         // bring the heater to the desired state
@@ -211,19 +311,19 @@ public class HeatingControllerService {
         setTargetTemperatureInternal(targetTemp);
     }
 
+    /**
+     * @return the temperature of the room expected in anticipationMs by the trend of the last hour, in hundredths
+     * of a degree
+     */
     private Optional<Integer> getTemp(String room) {
-        try {
-            return Optional.of((int) (influxDBConnector.avgTempDuringLastHour(room)
-                    .getJSONArray("results")
-                    .getJSONObject(0)
-                    .getJSONArray("series")
-                    .optJSONObject(0)
-                    .getJSONArray("values")
-                    .getJSONArray(0)
-                    .getDouble(1) * 100));
-        } catch (Exception e) {
+        RollingWindow.Aggregate aggregate = sensorStateStore.aggregate(room, "temperature");
+        if (aggregate == null) {
             return Optional.empty();
         }
+        double forecast = aggregate.forecast(anticipationMs);
+        logger.info("Last hour in " + room + ": latest=" + aggregate.getLatest() + " min=" + aggregate.getMin()
+                + " max=" + aggregate.getMax() + " rate/h=" + aggregate.getRatePerHour() + " forecast=" + forecast);
+        return Optional.of((int) (forecast * 100));
     }
 
     private SerialConnection.RfPacket sendWithRetries(int command) {
@@ -231,87 +331,169 @@ public class HeatingControllerService {
             logger.warn("Overriding command " + command + " with OFF because of too many failed attempts " + failedAttempts.get());
             command = COMMAND_SWITCH_OFF_HEATER;
         }
-        received.clear();
-        int retryCounter = 0;
-        while (retryCounter < maxRetries) {
-            commandSender.sendValue(senderId, command, false);
-
-            SerialConnection.RfPacket packet = null;
-            try {
-                packet = received.poll(1, TimeUnit.SECONDS);
-            } catch (Exception ignored) {
+        long startNanos = System.nanoTime();
+        SerialConnection.RfPacket packet = serialConnection.request(
+                new SerialConnection.RfPacket(senderId, new int[]{command}),
+                isReplyTo(command, sensor.getDecoder(), heaterStatusField),
+                replyTimeoutMs,
+                maxAttempts).copy().completeOnTimeout(null, requestTimeoutMs, TimeUnit.MILLISECONDS).join();
+
+        if (packet != null) {
+            commandsAnswered.increment();
+            commandDuration.recordSince(startNanos);
+            if (failedAttempts.getAndSet(0) != 0) {
+                publishStatus();
             }
-
-            if (packet != null) {
-                failedAttempts.set(0);
-                return packet;
-            }
-
-            retryCounter++;
-
+            return packet;
         }
         logger.warn("Giving up sending command " + command + " to heater controller");
+        commandsUnanswered.increment();
         failedAttempts.incrementAndGet();
+        publishStatus();
         return null;
     }
 
-    private boolean handleIncoming(SerialConnection.RfPacket p) {
-        if (p.getRemoteAddr() != senderId) {
-            return false;
+    /**
+     * Every command is answered with a status packet, the packets carry no command id to match on. So the reply to
+     * a switch command must report the heater in the commanded state, a regular report sent meanwhile does not.
+     */
+    static Predicate<SerialConnection.RfPacket> isReplyTo(int command, SensorDecoder decoder, int heaterStatusField) {
+        if (command != COMMAND_SWITCH_ON_HEATER && command != COMMAND_SWITCH_OFF_HEATER) {
+            return p -> p.length() >= decoder.getMinLength();
         }
-
-        received.offer(p);
-
-        return true;
+        int expected = command == COMMAND_SWITCH_ON_HEATER ? 1 : 0;
+        return p -> {
+            // called on the reader thread, not guarded by this
+            int[] values = new int[decoder.getFieldCount()];
+            return p.length() >= decoder.getMinLength()
+                    && decoder.decode(p, values)
+                    && values[heaterStatusField] == expected;
+        };
     }
 
-    private Tuple<Integer, Boolean> reportValues(SerialConnection.RfPacket p, Mode currentMode, int failedAttempts) {
+        private Tuple<Integer, Boolean> reportValues(SerialConnection.RfPacket p, Mode currentMode, int failedAttempts) {
         if (p != null) {
-            int temperature = Sht15SensorService.getTemperature(p);
-            String temp = MathTools.divideBy100(temperature);
-            String humidity = MathTools.divideBy100(Sht15SensorService.getRelativeHumidity(p, temperature));
-            boolean heaterStatus = p.getMessage()[4] == 1;
-
-            logger.info("Relative humidity " + humidity);
-            logger.info("Temperature " + temp);
-            logger.info("Heater on? " + heaterStatus);
-
-            if (temperature >= -4000 && temperature <= 8000) {
-                influxDBConnector.recordSensorData(
-                        "sensor",
-                        Optional.of(new InfluxDBConnector.KeyValue("room", "heating_controller")),
-                        Arrays.asList(
-                                new InfluxDBConnector.KeyValue("temperature", temp),
-                                new InfluxDBConnector.KeyValue("humidity", humidity),
-                                new InfluxDBConnector.KeyValue("heater_status", String.valueOf((heaterStatus ? 1 : 0))),
-                                new InfluxDBConnector.KeyValue("automatic_mode", String.valueOf(currentMode == Mode.AUTOMATIC ? 1 : 0)),
-                                new InfluxDBConnector.KeyValue("manual_mode", String.valueOf(currentMode == Mode.MANUAL ? 1 : 0)),
-                                new InfluxDBConnector.KeyValue("target_temperature", String.valueOf(MathTools.divideBy100(getTargetTemperature()))),
-                                new InfluxDBConnector.KeyValue("configured_heater_target", String.valueOf(getConfiguredHeaterTarget().equals("on") ? 1 : 0)),
-                                new InfluxDBConnector.KeyValue("failed_attempts", String.valueOf(failedAttempts))
-                        )
-                );
+            SensorDecoder decoder = sensor.getDecoder();
+            boolean plausible = decoder.decode(p, values);
+            int temperature = values[temperatureField];
+            boolean heaterStatus = values[heaterStatusField] == 1;
+
+            LineProtocolEncoder point = sensor.newPoint(influxDBConnector);
+            decoder.addFields(point, values);
+            addStatusFields(point, currentMode, failedAttempts);
+
+            logger.info("Received {}", point);
+
+            if (plausible) {
+                influxDBConnector.record(point);
+                long now = System.currentTimeMillis();
+                decoder.updateState(sensorStateStore, sensor.getName(), values, now);
+                lastTemperature = temperature;
+                lastHeaterStatus = heaterStatus;
+                lastMeasurementTimestamp = now;
+                publishStatus();
                 return new Tuple<>(temperature, heaterStatus);
             } else {
                 logger.info("Ignoring abnormal values " + temperature);
             }
         }
 
-        influxDBConnector.recordSensorData(
-                "sensor",
-                Optional.of(new InfluxDBConnector.KeyValue("room", "heating_controller")),
-                Arrays.asList(
-                        new InfluxDBConnector.KeyValue("automatic_mode", String.valueOf(currentMode == Mode.AUTOMATIC ? 1 : 0)),
-                        new InfluxDBConnector.KeyValue("manual_mode", String.valueOf(currentMode == Mode.MANUAL ? 1 : 0)),
-                        new InfluxDBConnector.KeyValue("target_temperature", String.valueOf(MathTools.divideBy100(getTargetTemperature()))),
-                        new InfluxDBConnector.KeyValue("configured_heater_target", String.valueOf(getConfiguredHeaterTarget().equals("on") ? 1 : 0)),
-                        new InfluxDBConnector.KeyValue("failed_attempts", String.valueOf(failedAttempts))
-                )
-        );
+        LineProtocolEncoder point = sensor.newPoint(influxDBConnector);
+        addStatusFields(point, currentMode, failedAttempts);
+        influxDBConnector.record(point);
         return null;
 
     }
 
+    private void addStatusFields(LineProtocolEncoder point, Mode currentMode, int failedAttempts) {
+        point.field("automatic_mode", currentMode == Mode.AUTOMATIC ? 1 : 0)
+                .field("manual_mode", currentMode == Mode.MANUAL ? 1 : 0)
+                .fieldCenti("target_temperature", getTargetTemperature())
+                .field("configured_heater_target", getConfiguredHeaterTarget().equals("on") ? 1 : 0)
+                .field("failed_attempts", failedAttempts)
+                .timestamp(System.currentTimeMillis());
+    }
+
+    public static class Status {
+        private final long version;
+        private final Mode mode;
+        private final int targetTemperature;
+        private final String configuredHeaterTarget;
+        private final Integer temperature;
+        private final Boolean heaterStatus;
+        private final long measuredAt;
+        private final int failedAttempts;
+
+        public Status(long version, Mode mode, int targetTemperature, String configuredHeaterTarget, Integer temperature, Boolean heaterStatus, long measuredAt, int failedAttempts) {
+            this.version = version;
+            this.mode = mode;
+            this.targetTemperature = targetTemperature;
+            this.configuredHeaterTarget = configuredHeaterTarget;
+            this.temperature = temperature;
+            this.heaterStatus = heaterStatus;
+            this.measuredAt = measuredAt;
+            this.failedAttempts = failedAttempts;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * @return in hundredths of a degree
+         */
+        public int getTargetTemperature() {
+            return targetTemperature;
+        }
+
+        public String getConfiguredHeaterTarget() {
+            return configuredHeaterTarget;
+        }
+
+        /**
+         * @return the last measured temperature in hundredths of a degree, null if none yet
+         */
+        public Integer getTemperature() {
+            return temperature;
+        }
+
+        /**
+         * @return whether the heater was on at the last measurement, null if none yet
+         */
+        public Boolean getHeaterStatus() {
+            return heaterStatus;
+        }
+
+        public long getMeasuredAt() {
+            return measuredAt;
+        }
+
+        public int getFailedAttempts() {
+            return failedAttempts;
+        }
+
+        /**
+         * @return as served by /api/heater
+         */
+        public JSONObject toJson() {
+            JSONObject result = new JSONObject();
+            result.put("mode", mode);
+            result.put("target_temperature", targetTemperature);
+            result.put("target_heater_status", configuredHeaterTarget);
+            result.put("failed_attempts", failedAttempts);
+            if (temperature != null) {
+                result.put("temperature", temperature);
+                result.put("heater_status", heaterStatus ? "on" : "off");
+                result.put("measured_at", measuredAt);
+            }
+            return result;
+        }
+    }
+
     public enum Mode {
         ON,
         OFF,
@@ -0,0 +1,189 @@
+package com.dehnes.rest.demo.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks the quality of the radio link to every sensor from the rolling 8 bit counter in its packets.
+ * <p>
+ * A packet whose counter is one above the previous one is the normal case, a bigger step means the packets in
+ * between were lost. The same counter again within the duplicate window is a retransmission, which the caller
+ * should drop. A step of half the counter range or more is taken as a restarted sensor rather than as losses.
+ * Inter-arrival jitter is the smoothed deviation of the time per counter step from its smoothed mean, like the
+ * RTP jitter of RFC 3550.
+ * <p>
+ * All state is kept in primitive arrays indexed by address, so tracking a packet does not allocate.
+ */
+public class LinkQualityTracker {
+
+    private static final int ADDRESS_SPACE = 256;
+    private static final int COUNTER_RANGE = 256;
+    // smoothing of interval and jitter, as in RFC 3550
+    private static final double GAIN = 1D / 16;
+
+    private final long duplicateWindowMs;
+
+    // indexed by address, guarded by this
+    private final String[] names = new String[ADDRESS_SPACE];
+    private final int[] lastCounter = new int[ADDRESS_SPACE];
+    private final long[] lastSeen = new long[ADDRESS_SPACE];
+    private final long[] received = new long[ADDRESS_SPACE];
+    private final long[] lost = new long[ADDRESS_SPACE];
+    private final long[] duplicates = new long[ADDRESS_SPACE];
+    private final long[] restarts = new long[ADDRESS_SPACE];
+    private final double[] meanIntervalMs = new double[ADDRESS_SPACE];
+    private final double[] jitterMs = new double[ADDRESS_SPACE];
+
+    public LinkQualityTracker() {
+        this(Long.parseLong(System.getProperty("LINK_DUPLICATE_WINDOW_MS", "10000")));
+    }
+
+    LinkQualityTracker(long duplicateWindowMs) {
+        this.duplicateWindowMs = duplicateWindowMs;
+        Arrays.fill(lastCounter, -1);
+    }
+
+    public synchronized void setName(int addr, String name) {
+        names[addr] = name;
+    }
+
+    /**
+     * @return false if the packet is a duplicate and should be dropped
+     */
+    public synchronized boolean onPacket(int addr, int counter, long timestamp) {
+        int previous = lastCounter[addr];
+        long elapsed = timestamp - lastSeen[addr];
+
+        if (previous < 0) {
+            // first packet since the start
+            received[addr]++;
+        } else {
+            int step = (counter - previous) & (COUNTER_RANGE - 1);
+            if (step == 0 && elapsed <= duplicateWindowMs) {
+                duplicates[addr]++;
+                return false;
+            }
+            received[addr]++;
+            if (step == 0 || step >= COUNTER_RANGE / 2) {
+                restarts[addr]++;
+            } else {
+                lost[addr] += step - 1;
+                updateJitter(addr, (double) elapsed / step);
+            }
+        }
+
+        lastCounter[addr] = counter;
+        lastSeen[addr] = timestamp;
+        return true;
+    }
+
+    /**
+     * @return the links of all addresses a packet was received from, by address
+     */
+    public synchronized List<Link> getLinks() {
+        List<Link> links = new ArrayList<>();
+        for (int addr = 0; addr < ADDRESS_SPACE; addr++) {
+            if (lastCounter[addr] >= 0) {
+                links.add(new Link(
+                        addr,
+                        names[addr],
+                        received[addr],
+                        lost[addr],
+                        duplicates[addr],
+                        restarts[addr],
+                        lastCounter[addr],
+                        lastSeen[addr],
+                        meanIntervalMs[addr],
+                        jitterMs[addr]));
+            }
+        }
+        return links;
+    }
+
+    private void updateJitter(int addr, double intervalMs) {
+        if (meanIntervalMs[addr] == 0) {
+            meanIntervalMs[addr] = intervalMs;
+            return;
+        }
+        double deviation = Math.abs(intervalMs - meanIntervalMs[addr]);
+        meanIntervalMs[addr] += (intervalMs - meanIntervalMs[addr]) * GAIN;
+        jitterMs[addr] += (deviation - jitterMs[addr]) * GAIN;
+    }
+
+    public static class Link {
+        private final int address;
+        private final String name;
+        private final long received;
+        private final long lost;
+        private final long duplicates;
+        private final long restarts;
+        private final int lastCounter;
+        private final long lastSeen;
+        private final double meanIntervalMs;
+        private final double jitterMs;
+
+        public Link(int address, String name, long received, long lost, long duplicates, long restarts, int lastCounter, long lastSeen, double meanIntervalMs, double jitterMs) {
+            this.address = address;
+            this.name = name;
+            this.received = received;
+            this.lost = lost;
+            this.duplicates = duplicates;
+            this.restarts = restarts;
+            this.lastCounter = lastCounter;
+            this.lastSeen = lastSeen;
+            this.meanIntervalMs = meanIntervalMs;
+            this.jitterMs = jitterMs;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        /**
+         * @return null if unknown
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getLost() {
+            return lost;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getRestarts() {
+            return restarts;
+        }
+
+        public int getLastCounter() {
+            return lastCounter;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public double getMeanIntervalMs() {
+            return meanIntervalMs;
+        }
+
+        public double getJitterMs() {
+            return jitterMs;
+        }
+
+        /**
+         * @return the share of the packets sent which were lost
+         */
+        public double getLossRatio() {
+            return received + lost == 0 ? 0 : (double) lost / (received + lost);
+        }
+    }
+}
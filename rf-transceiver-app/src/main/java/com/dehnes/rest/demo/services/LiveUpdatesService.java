@@ -0,0 +1,91 @@
+package com.dehnes.rest.demo.services;
+
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import com.dehnes.rest.server.SseBroadcaster;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.function.Consumer;
+
+/**
+ * Feeds the live event stream at /api/events:
+ * <ul>
+ * <li>"sensor" - every value recorded in the {@link SensorStateStore}, coalesced per room and field</li>
+ * <li>"packet" - every packet received from the transceiver, coalesced per sender</li>
+ * <li>"heater" - the status of the {@link HeatingControllerService} as served by /api/heater, whenever it changes</li>
+ * </ul>
+ */
+public class LiveUpdatesService {
+
+    private final SseBroadcaster sseBroadcaster;
+    private final SerialConnection serialConnection;
+    private final SensorStateStore sensorStateStore;
+    private final HeatingControllerService heatingControllerService;
+    private final Consumer<SerialConnection.RfPacket> packetObserver = this::onPacket;
+    private final SensorStateStore.UpdateListener updateListener = this::onUpdate;
+    private final HeatingControllerService.StatusListener statusListener = this::onStatus;
+
+    public LiveUpdatesService(
+            SseBroadcaster sseBroadcaster,
+            SerialConnection serialConnection,
+            SensorStateStore sensorStateStore,
+            HeatingControllerService heatingControllerService) {
+        this.sseBroadcaster = sseBroadcaster;
+        this.serialConnection = serialConnection;
+        this.sensorStateStore = sensorStateStore;
+        this.heatingControllerService = heatingControllerService;
+    }
+
+    @PostConstruct
+    public void start() {
+        serialConnection.addPacketObserver(packetObserver);
+        sensorStateStore.addListener(updateListener);
+        heatingControllerService.addStatusListener(statusListener);
+    }
+
+    @PreDestroy
+    public void stop() {
+        serialConnection.removePacketObserver(packetObserver);
+        sensorStateStore.removeListener(updateListener);
+        heatingControllerService.removeStatusListener(statusListener);
+        sseBroadcaster.close();
+    }
+
+    private void onPacket(SerialConnection.RfPacket p) {
+        if (sseBroadcaster.getSubscriberCount() == 0) {
+            return;
+        }
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < p.length(); i++) {
+            data.put(p.u8(i));
+        }
+        sseBroadcaster.publish("packet", "packet/" + p.getRemoteAddr(), new JSONObject()
+                .put("addr", p.getRemoteAddr())
+                .put("data", data)
+                .put("timestamp", System.currentTimeMillis())
+                .toString());
+    }
+
+    private void onUpdate(String room, String field, double value, long timestamp) {
+        if (sseBroadcaster.getSubscriberCount() == 0) {
+            return;
+        }
+        sseBroadcaster.publish("sensor", room + "/" + field, new JSONObject()
+                .put("room", room)
+                .put("field", field)
+                .put("value", value)
+                .put("timestamp", timestamp)
+                .toString());
+    }
+
+    private void onStatus(HeatingControllerService.Status status) {
+        if (sseBroadcaster.getSubscriberCount() == 0) {
+            return;
+        }
+        sseBroadcaster.publish("heater", "heater", status.toJson()
+                .put("version", status.getVersion())
+                .toString());
+    }
+}
@@ -1,23 +1,77 @@
 package com.dehnes.rest.demo.services;
 
-import java.io.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Key/value settings kept in memory and persisted to a properties file.
+ * <p>
+ * Reads go to an immutable snapshot which is replaced on every change, so they never block. Changes are
+ * coalesced: the file is written once the settings have been quiet for the debounce time, but no later than the
+ * max wait after the first unsaved change, and only if something actually changed. The file is replaced atomically
+ * by writing a temp file and renaming it, optionally synced to disk first, without blocking changes meanwhile.
+ * Pending changes are written on shutdown, later changes right away. A failed write is retried after the max wait.
+ */
 public class PersistenceService {
-    private final String filename;
-    private final Properties properties;
+    private static final Logger logger = LoggerFactory.getLogger(PersistenceService.class);
+
+    private final Path file;
+    private final long debounceMs;
+    private final long maxWaitMs;
+    private final boolean fsync;
+    // serializes the writes, so an older snapshot never replaces a newer one
+    private final Object writeLock = new Object();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "persistenceFlusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Map<String, String> values;
+
+    // guarded by this
+    private boolean dirty;
+    private long dirtySince;
+    private ScheduledFuture<?> pendingFlush;
+    private boolean stopped;
 
     public PersistenceService() {
-        this.properties = new Properties();
-        this.filename = System.getProperty("STORAGE_FILE_NAME", "storage.properties");
-        this.load();
+        this(
+                Paths.get(System.getProperty("STORAGE_FILE_NAME", "storage.properties")),
+                Long.parseLong(System.getProperty("STORAGE_DEBOUNCE_MS", "2000")),
+                Long.parseLong(System.getProperty("STORAGE_MAX_WAIT_MS", "10000")),
+                Boolean.parseBoolean(System.getProperty("STORAGE_FSYNC", "true")));
     }
 
-    public synchronized String get(String key, String persistDefaultValue) {
-        String value = properties.getProperty(key);
+    PersistenceService(Path file, long debounceMs, long maxWaitMs, boolean fsync) {
+        this.file = file;
+        this.debounceMs = debounceMs;
+        this.maxWaitMs = maxWaitMs;
+        this.fsync = fsync;
+        this.values = load();
+    }
+
+    public String get(String key, String persistDefaultValue) {
+        String value = values.get(key);
         if (value == null && persistDefaultValue != null) {
             value = persistDefaultValue;
             set(key, persistDefaultValue);
@@ -25,37 +79,120 @@ public class PersistenceService {
         return value;
     }
 
-    public synchronized void set(String key, String value) {
-        if (value == null) {
-            properties.remove(key);
-        } else {
-            properties.setProperty(key, value);
+    public void set(String key, String value) {
+        boolean stopped;
+        synchronized (this) {
+            if (Objects.equals(values.get(key), value)) {
+                return;
+            }
+            Map<String, String> copy = new HashMap<>(values);
+            if (value == null) {
+                copy.remove(key);
+            } else {
+                copy.put(key, value);
+            }
+            values = Collections.unmodifiableMap(copy);
+
+            long now = System.currentTimeMillis();
+            if (!dirty) {
+                dirty = true;
+                dirtySince = now;
+            }
+            stopped = this.stopped;
+            if (!stopped) {
+                scheduleFlush(Math.max(0, Math.min(debounceMs, dirtySince + maxWaitMs - now)));
+            }
+        }
+        if (stopped) {
+            // e.g. a change during shutdown, nothing flushes later anymore
+            flush();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+                pendingFlush = null;
+            }
         }
-        write();
+        flusher.shutdownNow();
+        flush();
     }
 
-    private void load() {
-        File file = new File(filename);
-        if (!file.exists()) {
+    /**
+     * Writes the settings if they changed since the last write.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            Map<String, String> snapshot;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                snapshot = values;
+                dirty = false;
+                pendingFlush = null;
+            }
+
             try {
-                file.createNewFile();
+                write(snapshot);
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                // stays dirty, tried again after the max wait at the latest
+                logger.error("Could not write " + file, e);
+                synchronized (this) {
+                    if (!dirty) {
+                        dirty = true;
+                        dirtySince = System.currentTimeMillis();
+                    }
+                    if (!stopped && pendingFlush == null) {
+                        scheduleFlush(maxWaitMs);
+                    }
+                }
             }
         }
-        try (FileInputStream fis = new FileInputStream(filename)) {
-            properties.load(fis);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    }
+
+    // guarded by this
+    private void scheduleFlush(long delayMs) {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
         }
+        pendingFlush = flusher.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
     }
 
-    private void write() {
-        try (FileOutputStream fos = new FileOutputStream(filename, false)) {
+    private void write(Map<String, String> snapshot) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(snapshot);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile(), false)) {
             properties.store(fos, "");
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            if (fsync) {
+                fos.getFD().sync();
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Map<String, String> load() {
+        Map<String, String> result = new HashMap<>();
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (FileInputStream fis = new FileInputStream(file.toFile())) {
+                properties.load(fis);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            properties.stringPropertyNames().forEach(key -> result.put(key, properties.getProperty(key)));
         }
+        return Collections.unmodifiableMap(result);
     }
 
 }
@@ -0,0 +1,183 @@
+package com.dehnes.rest.demo.services;
+
+/**
+ * Streaming count/mean/min/max/rate over a sliding time window of fixed-size buckets.
+ * <p>
+ * The window is split into bucketCount buckets of bucketMs each, kept in a circular set of primitive arrays.
+ * A sample only updates its bucket and a bucket is reset once its slot is re-used for a newer period, so both
+ * adding and querying cost O(bucketCount) at most, independent of the number of samples. The window slides by
+ * whole buckets, i.e. it covers between (bucketCount - 1) and bucketCount buckets of history.
+ */
+public class RollingWindow {
+
+    private final long bucketMs;
+    private final int bucketCount;
+
+    // the period (timestamp / bucketMs) each bucket currently holds, 0 if never used
+    private final long[] periods;
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+    private final long[] firstTimestamps;
+    private final double[] firstValues;
+    private final long[] lastTimestamps;
+    private final double[] lastValues;
+
+    public RollingWindow(long bucketMs, int bucketCount) {
+        this.bucketMs = bucketMs;
+        this.bucketCount = bucketCount;
+        this.periods = new long[bucketCount];
+        this.counts = new int[bucketCount];
+        this.sums = new double[bucketCount];
+        this.mins = new double[bucketCount];
+        this.maxs = new double[bucketCount];
+        this.firstTimestamps = new long[bucketCount];
+        this.firstValues = new double[bucketCount];
+        this.lastTimestamps = new long[bucketCount];
+        this.lastValues = new double[bucketCount];
+    }
+
+    public long getWindowMs() {
+        return bucketMs * bucketCount;
+    }
+
+    public synchronized void add(long timestamp, double value) {
+        long period = timestamp / bucketMs;
+        int i = (int) (period % bucketCount);
+        if (periods[i] != period) {
+            if (periods[i] > period) {
+                // older than the window
+                return;
+            }
+            periods[i] = period;
+            counts[i] = 0;
+            sums[i] = 0;
+            mins[i] = value;
+            maxs[i] = value;
+            firstTimestamps[i] = timestamp;
+            firstValues[i] = value;
+            lastTimestamps[i] = timestamp;
+            lastValues[i] = value;
+        }
+
+        counts[i]++;
+        sums[i] += value;
+        mins[i] = Math.min(mins[i], value);
+        maxs[i] = Math.max(maxs[i], value);
+        if (timestamp < firstTimestamps[i]) {
+            firstTimestamps[i] = timestamp;
+            firstValues[i] = value;
+        }
+        if (timestamp >= lastTimestamps[i]) {
+            lastTimestamps[i] = timestamp;
+            lastValues[i] = value;
+        }
+    }
+
+    /**
+     * @return the aggregate of the window ending now, null if it holds no samples
+     */
+    public synchronized Aggregate aggregate(long now) {
+        long newestPeriod = now / bucketMs;
+        long oldestPeriod = newestPeriod - bucketCount + 1;
+
+        int count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long firstTimestamp = Long.MAX_VALUE;
+        double firstValue = 0;
+        long lastTimestamp = Long.MIN_VALUE;
+        double lastValue = 0;
+
+        for (int i = 0; i < bucketCount; i++) {
+            if (counts[i] == 0 || periods[i] < oldestPeriod || periods[i] > newestPeriod) {
+                continue;
+            }
+            count += counts[i];
+            sum += sums[i];
+            min = Math.min(min, mins[i]);
+            max = Math.max(max, maxs[i]);
+            if (firstTimestamps[i] < firstTimestamp) {
+                firstTimestamp = firstTimestamps[i];
+                firstValue = firstValues[i];
+            }
+            if (lastTimestamps[i] >= lastTimestamp) {
+                lastTimestamp = lastTimestamps[i];
+                lastValue = lastValues[i];
+            }
+        }
+
+        if (count == 0) {
+            return null;
+        }
+        double ratePerHour = lastTimestamp > firstTimestamp
+                ? (lastValue - firstValue) * 3600_000D / (lastTimestamp - firstTimestamp)
+                : 0;
+        return new Aggregate(count, sum / count, min, max, lastValue, lastTimestamp, ratePerHour);
+    }
+
+    public static class Aggregate {
+        private final int count;
+        private final double mean;
+        private final double min;
+        private final double max;
+        private final double latest;
+        private final long latestTimestamp;
+        private final double ratePerHour;
+
+        public Aggregate(int count, double mean, double min, double max, double latest, long latestTimestamp, double ratePerHour) {
+            this.count = count;
+            this.mean = mean;
+            this.min = min;
+            this.max = max;
+            this.latest = latest;
+            this.latestTimestamp = latestTimestamp;
+            this.ratePerHour = ratePerHour;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getLatest() {
+            return latest;
+        }
+
+        public long getLatestTimestamp() {
+            return latestTimestamp;
+        }
+
+        /**
+         * @return change per hour between the first and the latest sample in the window
+         */
+        public double getRatePerHour() {
+            return ratePerHour;
+        }
+
+        /**
+         * The latest value continued by the rate. The result stays within the range of the window, widened by
+         * that range on both sides. This keeps a rate taken from a few close samples from running away.
+         *
+         * @return the expected value aheadMs after the latest sample
+         */
+        public double forecast(long aheadMs) {
+            double span = max - min;
+            double projected = latest + ratePerHour * aheadMs / 3600_000D;
+            return Math.max(min - span, Math.min(max + span, projected));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.dehnes.rest.demo.services;
+
+import com.dehnes.rest.demo.clients.influxdb.InfluxDBConnector;
+import com.dehnes.rest.demo.clients.influxdb.LineProtocolEncoder;
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import com.dehnes.rest.demo.services.sensors.SensorDecoder;
+import com.dehnes.rest.demo.services.sensors.SensorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.function.Consumer;
+
+/**
+ * Records the packets of every sensor in the {@link SensorRegistry}. Each packet is decoded once, by the decoder
+ * configured for its address, and its values go to InfluxDB and the {@link SensorStateStore}. Packets a sensor
+ * repeated are dropped, see {@link LinkQualityTracker}.
+ */
+public class SensorService {
+    private static final Logger logger = LoggerFactory.getLogger(SensorService.class);
+
+    private final SerialConnection serialConnection;
+    private final InfluxDBConnector influxDBConnector;
+    private final SensorStateStore sensorStateStore;
+    private final LinkQualityTracker linkQualityTracker;
+    private final SensorRegistry sensorRegistry;
+    private final Consumer<SerialConnection.RfPacket> listener;
+
+    // local to the readerThread of the serial connection, re-used for every packet
+    private final int[] values;
+
+    public SensorService(InfluxDBConnector influxDBConnector, SensorStateStore sensorStateStore, SerialConnection serialConnection, LinkQualityTracker linkQualityTracker, SensorRegistry sensorRegistry) {
+        this.influxDBConnector = influxDBConnector;
+        this.sensorStateStore = sensorStateStore;
+        this.linkQualityTracker = linkQualityTracker;
+        this.serialConnection = serialConnection;
+        this.sensorRegistry = sensorRegistry;
+        this.listener = this::handleIncoming;
+        this.values = new int[sensorRegistry.getMaxFieldCount()];
+    }
+
+    @PostConstruct
+    public void start() {
+        for (SensorRegistry.Sensor sensor : sensorRegistry.getSensors()) {
+            linkQualityTracker.setName(sensor.getAddress(), sensor.getName());
+            serialConnection.registerListener(sensor.getAddress(), listener);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (SensorRegistry.Sensor sensor : sensorRegistry.getSensors()) {
+            serialConnection.unregisterListener(sensor.getAddress(), listener);
+        }
+    }
+
+    private void handleIncoming(SerialConnection.RfPacket p) {
+        SensorRegistry.Sensor sensor = sensorRegistry.get(p.getRemoteAddr());
+        SensorDecoder decoder = sensor.getDecoder();
+        if (p.length() < decoder.getMinLength()) {
+            logger.info("Ignoring short packet {}", p);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int counter = decoder.counter(p);
+        if (counter >= 0 && !linkQualityTracker.onPacket(p.getRemoteAddr(), counter, now)) {
+            logger.debug("Dropping duplicate {}", p);
+            return;
+        }
+
+        boolean plausible = decoder.decode(p, values);
+        LineProtocolEncoder point = sensor.newPoint(influxDBConnector);
+        decoder.addFields(point, values);
+        if (counter >= 0) {
+            point.field("counter", counter);
+        }
+        point.timestamp(now);
+
+        logger.info("Received {}", point);
+
+        if (plausible) {
+            // record received data in db
+            influxDBConnector.record(point);
+            decoder.updateState(sensorStateStore, sensor.getName(), values, now);
+        } else {
+            logger.info("Ignoring abnormal values");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.dehnes.rest.demo.services;
+
+import com.dehnes.rest.demo.clients.influxdb.InfluxDBConnector;
+import com.dehnes.rest.demo.services.sensors.SensorRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the recent sensor values in memory, so that reads do not need a round trip to InfluxDB.
+ * <p>
+ * Values are kept per room and field with the same value InfluxDB gets, booleans as 1 and 0. Series without a
+ * room tag, like the "garage" measurement of the garage door, are kept under the name of their sensor, so that
+ * they never mix with the fields of a room by the same name. Each field keeps a {@link RollingWindow} over the last hour
+ * in one minute buckets. The listeners update the store when they decode a packet, at startup it is seeded with
+ * the last hour from InfluxDB.
+ */
+public class SensorStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(SensorStateStore.class);
+
+    public static final long WINDOW_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int BUCKETS = 60;
+
+    private final InfluxDBConnector influxDBConnector;
+    private final SensorRegistry sensorRegistry;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, RollingWindow>> rooms = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<UpdateListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public SensorStateStore(InfluxDBConnector influxDBConnector, SensorRegistry sensorRegistry) {
+        this.influxDBConnector = influxDBConnector;
+        this.sensorRegistry = sensorRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        seed("sensor", "room", null);
+        for (SensorRegistry.Sensor sensor : sensorRegistry.getSensors()) {
+            if (!sensor.isTagged()) {
+                seed(sensor.getMeasurement(), null, sensor.getName());
+            }
+        }
+    }
+
+    public interface UpdateListener {
+        void onUpdate(String room, String field, double value, long timestamp);
+    }
+
+    public void addListener(UpdateListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(UpdateListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void update(String room, String field, double value, long timestamp) {
+        record(room, field, value, timestamp);
+        versions.computeIfAbsent(room, r -> new AtomicLong()).incrementAndGet();
+        version.incrementAndGet();
+        for (UpdateListener listener : listeners) {
+            try {
+                listener.onUpdate(room, field, value, timestamp);
+            } catch (Exception e) {
+                logger.error("", e);
+            }
+        }
+    }
+
+    public void update(String room, String field, boolean value, long timestamp) {
+        update(room, field, value ? 1 : 0, timestamp);
+    }
+
+    /**
+     * @return a counter which changes with every update
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return a counter which changes with every update of the room
+     */
+    public long getVersion(String room) {
+        AtomicLong v = versions.get(room);
+        return v == null ? 0 : v.get();
+    }
+
+    private void record(String room, String field, double value, long timestamp) {
+        rooms.computeIfAbsent(room, r -> new ConcurrentHashMap<>())
+                .computeIfAbsent(field, f -> new RollingWindow(WINDOW_MS / BUCKETS, BUCKETS))
+                .add(timestamp, value);
+    }
+
+    /**
+     * @return the latest value of the last hour, if any
+     */
+    public OptionalDouble latest(String room, String field) {
+        RollingWindow.Aggregate aggregate = aggregate(room, field);
+        return aggregate == null ? OptionalDouble.empty() : OptionalDouble.of(aggregate.getLatest());
+    }
+
+    /**
+     * @return the mean over the last hour, if there were any values
+     */
+    public OptionalDouble mean(String room, String field) {
+        RollingWindow.Aggregate aggregate = aggregate(room, field);
+        return aggregate == null ? OptionalDouble.empty() : OptionalDouble.of(aggregate.getMean());
+    }
+
+    /**
+     * @return the aggregate over the last hour, null if there were no values
+     */
+    public RollingWindow.Aggregate aggregate(String room, String field) {
+        ConcurrentHashMap<String, RollingWindow> fields = rooms.get(room);
+        RollingWindow window = fields == null ? null : fields.get(field);
+        return window == null ? null : window.aggregate(System.currentTimeMillis());
+    }
+
+    public Set<String> getRooms() {
+        return new TreeSet<>(rooms.keySet());
+    }
+
+    public Set<String> getFields(String room) {
+        ConcurrentHashMap<String, RollingWindow> fields = rooms.get(room);
+        return fields == null ? Collections.emptySet() : new TreeSet<>(fields.keySet());
+    }
+
+    /**
+     * Loads the last hour of the measurement, grouped by the tag if there is one, else into the given room.
+     */
+    private void seed(String measurement, String tag, String room) {
+        String query = "SELECT * FROM " + measurement
+                + " WHERE time > " + ((System.currentTimeMillis() - WINDOW_MS) / 1000) + "s"
+                + (tag != null ? " GROUP BY " + tag : "");
+        int count = 0;
+        try {
+            JSONArray results = influxDBConnector.query(query).optJSONArray("results");
+            JSONArray series = results == null || results.length() == 0 ? null : results.getJSONObject(0).optJSONArray("series");
+            if (series == null) {
+                logger.info("Nothing to seed from " + measurement);
+                return;
+            }
+
+            for (int i = 0; i < series.length(); i++) {
+                JSONObject serie = series.getJSONObject(i);
+                JSONObject tags = serie.optJSONObject("tags");
+                String key = tag == null ? room : tags != null ? tags.optString(tag, measurement) : measurement;
+                JSONArray columns = serie.getJSONArray("columns");
+                JSONArray values = serie.optJSONArray("values");
+                if (values == null) {
+                    continue;
+                }
+
+                for (int row = 0; row < values.length(); row++) {
+                    JSONArray entry = values.getJSONArray(row);
+                    long timestamp = entry.getLong(0);
+                    for (int c = 1; c < columns.length(); c++) {
+                        Object value = entry.opt(c);
+                        if (value instanceof Boolean) {
+                            record(key, columns.getString(c), (Boolean) value ? 1 : 0, timestamp);
+                            count++;
+                        } else if (value instanceof Number) {
+                            record(key, columns.getString(c), ((Number) value).doubleValue(), timestamp);
+                            count++;
+                        }
+                    }
+                }
+            }
+            logger.info("Seeded " + count + " values from " + measurement);
+        } catch (Exception e) {
+            logger.warn("Could not seed from " + measurement + ", starting without history - " + e.getMessage());
+        }
+    }
+}
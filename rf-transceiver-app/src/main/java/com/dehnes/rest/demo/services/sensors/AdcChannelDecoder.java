@@ -0,0 +1,101 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+
+/**
+ * Raw ADC channels, 16 bit little endian. There is one option per channel:
+ * <ul>
+ * <li>empty: the channel is skipped</li>
+ * <li>name: the raw value</li>
+ * <li>name&lt;N or name&gt;N: a boolean, true if the value is below or above N</li>
+ * </ul>
+ */
+public class AdcChannelDecoder extends SensorDecoder {
+
+    // per field
+    private final int[] channels;
+    // -1 below, 1 above the threshold, 0 for the raw value
+    private final int[] comparisons;
+    private final int[] thresholds;
+
+    public AdcChannelDecoder(String[] options) {
+        this(parse(options), 2 * options.length);
+    }
+
+    private AdcChannelDecoder(Spec spec, int minLength) {
+        super(spec.names, spec.kinds, minLength);
+        this.channels = spec.channels;
+        this.comparisons = spec.comparisons;
+        this.thresholds = spec.thresholds;
+    }
+
+    @Override
+    public boolean decode(SerialConnection.RfPacket p, int[] values) {
+        for (int i = 0; i < channels.length; i++) {
+            int value = p.u16le(2 * channels[i]);
+            if (comparisons[i] < 0) {
+                values[i] = value < thresholds[i] ? 1 : 0;
+            } else if (comparisons[i] > 0) {
+                values[i] = value > thresholds[i] ? 1 : 0;
+            } else {
+                values[i] = value;
+            }
+        }
+        return true;
+    }
+
+    private static Spec parse(String[] options) {
+        int count = 0;
+        for (String option : options) {
+            if (!option.isEmpty()) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("No channels configured");
+        }
+
+        Spec spec = new Spec(count);
+        int field = 0;
+        for (int channel = 0; channel < options.length; channel++) {
+            String option = options[channel];
+            if (option.isEmpty()) {
+                continue;
+            }
+            int below = option.indexOf('<');
+            int above = option.indexOf('>');
+            int pos = Math.max(below, above);
+            if (pos == 0) {
+                throw new IllegalArgumentException("Missing field name for channel " + channel);
+            }
+            spec.channels[field] = channel;
+            if (pos > 0) {
+                spec.names[field] = option.substring(0, pos);
+                spec.kinds[field] = Kind.BOOLEAN;
+                spec.comparisons[field] = below > 0 ? -1 : 1;
+                spec.thresholds[field] = Integer.parseInt(option.substring(pos + 1));
+            } else {
+                spec.names[field] = option;
+                spec.kinds[field] = Kind.INT;
+            }
+            field++;
+        }
+        return spec;
+    }
+
+    private static class Spec {
+        private final String[] names;
+        private final Kind[] kinds;
+        private final int[] channels;
+        private final int[] comparisons;
+        private final int[] thresholds;
+
+        private Spec(int fields) {
+            names = new String[fields];
+            kinds = new Kind[fields];
+            channels = new int[fields];
+            comparisons = new int[fields];
+            thresholds = new int[fields];
+        }
+    }
+}
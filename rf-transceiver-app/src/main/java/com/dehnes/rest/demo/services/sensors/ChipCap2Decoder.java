@@ -0,0 +1,46 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+
+/**
+ * The ChipCap2 sensors: humidity, temperature, light and battery as big endian ADC values, then a rolling counter.
+ */
+public class ChipCap2Decoder extends SensorDecoder {
+
+    public ChipCap2Decoder() {
+        super(
+                new String[]{"temperature", "humidity", "light", "battery_volt"},
+                new Kind[]{Kind.CENTI, Kind.CENTI, Kind.INT, Kind.CENTI},
+                9);
+    }
+
+    @Override
+    public int counter(SerialConnection.RfPacket p) {
+        return p.u8(8);
+    }
+
+    @Override
+    public boolean decode(SerialConnection.RfPacket p, int[] values) {
+        int temperature = getTemperature(p);
+        values[0] = temperature;
+        values[1] = getRelativeHumidity(p);
+        values[2] = p.u16be(4);
+        values[3] = calcVoltage(p.u16be(6));
+        return temperature > -4000 && temperature < 8000;
+    }
+
+    private static int calcVoltage(int adcValue) {
+        if (adcValue == 0) {
+            return 0;
+        }
+        return ((102300 / adcValue) * 6) / 10;
+    }
+
+    public static int getTemperature(SerialConnection.RfPacket packet) {
+        return (int) ((((((float) packet.u16be(2)) / 16384F) * 165) - 40) * 100);
+    }
+
+    public static int getRelativeHumidity(SerialConnection.RfPacket packet) {
+        return (int) ((((float) packet.u16be(0)) / 16384F) * 100 * 100);
+    }
+}
@@ -0,0 +1,117 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.influxdb.LineProtocolEncoder;
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import com.dehnes.rest.demo.services.SensorStateStore;
+
+/**
+ * Converts the message of a packet into a fixed set of integer fields, declared once when the decoder is created.
+ * <p>
+ * Decoding writes into an array supplied by the caller, one slot per field, so nothing is boxed or allocated
+ * per packet. Decoders are stateless and shared by all addresses of a configuration entry. Custom decoders
+ * extend this class and have a public constructor taking the options of their entry, or none, see
+ * {@link SensorRegistry}.
+ */
+public abstract class SensorDecoder {
+
+    public enum Kind {
+        /**
+         * in hundredths, e.g. of a degree
+         */
+        CENTI,
+        INT,
+        /**
+         * 0 or 1
+         */
+        BOOLEAN
+    }
+
+    private final String[] fieldNames;
+    private final Kind[] fieldKinds;
+    private final int minLength;
+
+    /**
+     * @param minLength the message length below which packets are not decoded
+     */
+    protected SensorDecoder(String[] fieldNames, Kind[] fieldKinds, int minLength) {
+        if (fieldNames.length != fieldKinds.length) {
+            throw new IllegalArgumentException("Need a kind for every field");
+        }
+        this.fieldNames = fieldNames.clone();
+        this.fieldKinds = fieldKinds.clone();
+        this.minLength = minLength;
+    }
+
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    public String getFieldName(int field) {
+        return fieldNames[field];
+    }
+
+    public Kind getFieldKind(int field) {
+        return fieldKinds[field];
+    }
+
+    /**
+     * @return the position of the field in the decoded values, -1 if there is none by that name
+     */
+    public int indexOf(String fieldName) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (fieldNames[i].equals(fieldName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return the rolling counter of the packet, -1 if the sensor sends none
+     */
+    public int counter(SerialConnection.RfPacket p) {
+        return -1;
+    }
+
+    /**
+     * Decodes a packet of at least {@link #getMinLength()} bytes.
+     *
+     * @param values receives one value per field
+     * @return false if the values are implausible and should not be recorded
+     */
+    public abstract boolean decode(SerialConnection.RfPacket p, int[] values);
+
+    public void addFields(LineProtocolEncoder point, int[] values) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            switch (fieldKinds[i]) {
+                case CENTI:
+                    point.fieldCenti(fieldNames[i], values[i]);
+                    break;
+                case BOOLEAN:
+                    point.field(fieldNames[i], values[i] != 0);
+                    break;
+                default:
+                    point.field(fieldNames[i], values[i]);
+            }
+        }
+    }
+
+    public void updateState(SensorStateStore sensorStateStore, String room, int[] values, long timestamp) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            switch (fieldKinds[i]) {
+                case CENTI:
+                    sensorStateStore.update(room, fieldNames[i], values[i] / 100D, timestamp);
+                    break;
+                case BOOLEAN:
+                    sensorStateStore.update(room, fieldNames[i], values[i] != 0, timestamp);
+                    break;
+                default:
+                    sensorStateStore.update(room, fieldNames[i], values[i], timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.influxdb.InfluxDBConnector;
+import com.dehnes.rest.demo.clients.influxdb.LineProtocolEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The sensors by address, with the decoders for their packets. Loaded from the properties file SENSORS_FILE,
+ * by default sensors.properties on the classpath. Every entry maps an address, or a range of addresses, to a
+ * decoder, a name and the options of the decoder:
+ * <pre>
+ * 2=chipcap2,bath
+ * 40-47=chipcap2,spare-{addr}
+ * 24=adc,garage_door@garage,light&lt;11,,door&gt;100
+ * 27=sht15,heating_controller,heater_status
+ * 30=com.example.MyDecoder,cellar,option1,option2
+ * </pre>
+ * The decoders are chipcap2 ({@link ChipCap2Decoder}), sht15 ({@link Sht15Decoder}), adc
+ * ({@link AdcChannelDecoder}) or the class name of a custom {@link SensorDecoder}. {addr} in a name is replaced
+ * by the address. Each entry creates one decoder, shared by all its addresses.
+ * <p>
+ * The values go to the InfluxDB measurement "sensor", tagged with the name as room. A name like garage_door@garage
+ * sends them to the measurement "garage" instead, without tags. Such a measurement belongs to a single sensor, and
+ * the current values are kept under the sensor name ("garage_door"), not the measurement, so they never mix with
+ * those of a room of the same name.
+ */
+public class SensorRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SensorRegistry.class);
+
+    private static final int ADDRESS_SPACE = 256;
+    private static final String DEFAULT_MEASUREMENT = "sensor";
+
+    private final Sensor[] byAddress = new Sensor[ADDRESS_SPACE];
+    private final Map<String, Sensor> byName = new HashMap<>();
+    private final Map<String, Sensor> byMeasurement = new HashMap<>();
+    private final List<Sensor> sensors;
+    private final int maxFieldCount;
+
+    public SensorRegistry() {
+        this(load(System.getProperty("SENSORS_FILE")));
+    }
+
+    SensorRegistry(Properties config) {
+        for (String key : config.stringPropertyNames()) {
+            String value = config.getProperty(key).trim();
+            try {
+                add(key.trim(), value);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Invalid sensor entry " + key + "=" + value, e);
+            }
+        }
+
+        List<Sensor> sensors = new ArrayList<>();
+        int maxFieldCount = 0;
+        for (Sensor sensor : byAddress) {
+            if (sensor != null) {
+                sensors.add(sensor);
+                maxFieldCount = Math.max(maxFieldCount, sensor.getDecoder().getFieldCount());
+            }
+        }
+        this.sensors = Collections.unmodifiableList(sensors);
+        this.maxFieldCount = maxFieldCount;
+        logger.info("Configured " + sensors.size() + " sensors");
+    }
+
+    /**
+     * @return the sensor sending from this address, null if none
+     */
+    public Sensor get(int address) {
+        return address >= 0 && address < ADDRESS_SPACE ? byAddress[address] : null;
+    }
+
+    /**
+     * @throws RuntimeException if there is no sensor by that name
+     */
+    public Sensor getByName(String name) {
+        Sensor sensor = byName.get(name);
+        if (sensor == null) {
+            throw new RuntimeException("No sensor configured with the name " + name);
+        }
+        return sensor;
+    }
+
+    /**
+     * @return ordered by address
+     */
+    public List<Sensor> getSensors() {
+        return sensors;
+    }
+
+    /**
+     * @return the most fields any decoder produces, the size of an array which fits the values of every sensor
+     */
+    public int getMaxFieldCount() {
+        return maxFieldCount;
+    }
+
+    private void add(String addresses, String value) {
+        int dash = addresses.indexOf('-');
+        int first = Integer.parseInt(dash < 0 ? addresses : addresses.substring(0, dash).trim());
+        int last = dash < 0 ? first : Integer.parseInt(addresses.substring(dash + 1).trim());
+        if (first < 0 || last >= ADDRESS_SPACE || first > last) {
+            throw new IllegalArgumentException("Invalid address range " + addresses);
+        }
+
+        String[] parts = value.split(",", -1);
+        if (parts.length < 2 || parts[1].trim().isEmpty()) {
+            throw new IllegalArgumentException("Need at least a decoder and a name");
+        }
+        String[] options = new String[parts.length - 2];
+        for (int i = 0; i < options.length; i++) {
+            options[i] = parts[i + 2].trim();
+        }
+        SensorDecoder decoder = newDecoder(parts[0].trim(), options);
+
+        String[] nameAndMeasurement = parts[1].trim().split("@", 2);
+        String measurement = nameAndMeasurement.length > 1 ? nameAndMeasurement[1].trim() : null;
+        if (measurement != null && measurement.isEmpty()) {
+            throw new IllegalArgumentException("Missing measurement");
+        }
+        if (DEFAULT_MEASUREMENT.equals(measurement)) {
+            throw new IllegalArgumentException("The measurement " + DEFAULT_MEASUREMENT + " is tagged with the room");
+        }
+
+        for (int addr = first; addr <= last; addr++) {
+            String name = nameAndMeasurement[0].trim().replace("{addr}", String.valueOf(addr));
+            if (byAddress[addr] != null) {
+                throw new IllegalArgumentException("Address " + addr + " is already used by " + byAddress[addr].getName());
+            }
+            if (byName.containsKey(name)) {
+                throw new IllegalArgumentException("Name " + name + " is already used by " + byName.get(name).getAddress());
+            }
+            if (measurement != null && byMeasurement.containsKey(measurement)) {
+                throw new IllegalArgumentException("Measurement " + measurement + " is already used by " + byMeasurement.get(measurement).getName());
+            }
+            Sensor sensor = new Sensor(addr, name, measurement, decoder);
+            byAddress[addr] = sensor;
+            byName.put(name, sensor);
+            if (measurement != null) {
+                byMeasurement.put(measurement, sensor);
+            }
+        }
+    }
+
+    private static SensorDecoder newDecoder(String type, String[] options) {
+        switch (type) {
+            case "chipcap2":
+                return new ChipCap2Decoder();
+            case "sht15":
+                return new Sht15Decoder(options);
+            case "adc":
+                return new AdcChannelDecoder(options);
+            default:
+                return newCustomDecoder(type, options);
+        }
+    }
+
+    private static SensorDecoder newCustomDecoder(String className, String[] options) {
+        try {
+            Class<? extends SensorDecoder> type = Class.forName(className).asSubclass(SensorDecoder.class);
+            for (Constructor<?> constructor : type.getConstructors()) {
+                if (Arrays.equals(constructor.getParameterTypes(), new Class<?>[]{String[].class})) {
+                    return (SensorDecoder) constructor.newInstance((Object) options);
+                }
+            }
+            return type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new RuntimeException("Could not create the decoder " + className, e);
+        }
+    }
+
+    private static Properties load(String file) {
+        Properties properties = new Properties();
+        try (InputStream in = file == null
+                ? SensorRegistry.class.getResourceAsStream("/sensors.properties")
+                : Files.newInputStream(Paths.get(file))) {
+            if (in == null) {
+                throw new RuntimeException("sensors.properties not found on the classpath");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the sensor configuration " + file, e);
+        }
+        return properties;
+    }
+
+    public static class Sensor {
+        private final int address;
+        private final String name;
+        // null for the default measurement, tagged with the room
+        private final String measurement;
+        private final SensorDecoder decoder;
+
+        public Sensor(int address, String name, String measurement, SensorDecoder decoder) {
+            this.address = address;
+            this.name = name;
+            this.measurement = measurement;
+            this.decoder = decoder;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SensorDecoder getDecoder() {
+            return decoder;
+        }
+
+        public String getMeasurement() {
+            return measurement == null ? DEFAULT_MEASUREMENT : measurement;
+        }
+
+        public boolean isTagged() {
+            return measurement == null;
+        }
+
+        /**
+         * @return a point for the values of this sensor, tagged with the room unless it has its own measurement
+         */
+        public LineProtocolEncoder newPoint(InfluxDBConnector influxDBConnector) {
+            LineProtocolEncoder point = influxDBConnector.newPoint(getMeasurement());
+            return measurement == null ? point.tag("room", name) : point;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+
+/**
+ * SHT15 sensors: raw temperature and humidity, big endian. The options name the bytes which follow, e.g. the
+ * heater status of the heating controller.
+ */
+public class Sht15Decoder extends SensorDecoder {
+
+    public Sht15Decoder(String[] options) {
+        super(fieldNames(options), fieldKinds(options), 4 + options.length);
+    }
+
+    private static String[] fieldNames(String[] options) {
+        String[] names = new String[2 + options.length];
+        names[0] = "temperature";
+        names[1] = "humidity";
+        for (int i = 0; i < options.length; i++) {
+            if (options[i].isEmpty()) {
+                throw new IllegalArgumentException("Missing field name for byte " + (4 + i));
+            }
+            names[2 + i] = options[i];
+        }
+        return names;
+    }
+
+    private static Kind[] fieldKinds(String[] options) {
+        Kind[] kinds = new Kind[2 + options.length];
+        kinds[0] = Kind.CENTI;
+        kinds[1] = Kind.CENTI;
+        for (int i = 0; i < options.length; i++) {
+            kinds[2 + i] = Kind.INT;
+        }
+        return kinds;
+    }
+
+    @Override
+    public boolean decode(SerialConnection.RfPacket p, int[] values) {
+        int temperature = calcTemp(p.u16be(0));
+        values[0] = temperature;
+        values[1] = calcHum(p.u16be(2), temperature);
+        // field 2 is byte 4
+        for (int i = 2; i < getFieldCount(); i++) {
+            values[i] = p.u8(2 + i);
+        }
+        return temperature >= -4000 && temperature <= 8000;
+    }
+
+    public static int calcTemp(int in) {
+        return (int) ((((float) in * 0.01) + -40.1F) * 100);
+    }
+
+    public static int calcHum(int SO_rh, int temperature) {
+        double temp = ((float) temperature) / 100F;
+        double c1 = -2.0468F;
+        double c2 = 0.0367F;
+        double c3 = (-1.5955) / 1000000;
+
+        // calc rhLin
+        double rhLin = c1 + (c2 * SO_rh) + (c3 * Math.pow(SO_rh, 2));
+
+        double t1 = 0.01;
+        double t2 = 0.00008;
+        double rHtrue = (temp - 25) * (t1 + (t2 * SO_rh)) + rhLin;
+
+        return (int) (rHtrue * 100F);
+    }
+}
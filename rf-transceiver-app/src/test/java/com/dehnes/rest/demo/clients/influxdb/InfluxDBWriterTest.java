@@ -0,0 +1,139 @@
+package com.dehnes.rest.demo.clients.influxdb;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InfluxDBWriterTest {
+
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final AtomicInteger statusCode = new AtomicInteger(204);
+    private HttpServer server;
+
+    @BeforeEach
+    public void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ping", exchange -> {
+            exchange.sendResponseHeaders(statusCode.get() == 500 ? 503 : 204, -1);
+            exchange.close();
+        });
+        server.createContext("/write", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            bodies.add(body);
+            // like a field type conflict
+            exchange.sendResponseHeaders(body.contains("bad") && statusCode.get() < 300 ? 400 : statusCode.get(), -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatchesBySizeAndAge() throws InterruptedException {
+        InfluxDBWriter writer = new InfluxDBWriter(url(), "test", 100, 3, 200, null, 100);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.offer("sensor,room=bath temperature=2" + i));
+        }
+        writer.start();
+        waitFor(() -> writer.getWritten() == 5);
+        writer.stop();
+
+        assertEquals(2, bodies.size());
+        assertEquals("sensor,room=bath temperature=20\nsensor,room=bath temperature=21\nsensor,room=bath temperature=22", bodies.get(0));
+        assertEquals("sensor,room=bath temperature=23\nsensor,room=bath temperature=24", bodies.get(1));
+        assertEquals(0, writer.getFailed());
+    }
+
+    @Test
+    public void testDropsWhenFullAndCountsFailures() throws InterruptedException {
+        statusCode.set(500);
+        InfluxDBWriter writer = new InfluxDBWriter(url(), "test", 2, 10, 50, null, 100);
+        assertTrue(writer.offer("a v=1"));
+        assertTrue(writer.offer("a v=2"));
+        assertFalse(writer.offer("a v=3"));
+        assertEquals(2, writer.getQueued());
+        assertEquals(1, writer.getDropped());
+
+        writer.start();
+        waitFor(() -> writer.getFailed() == 2);
+        writer.stop();
+        assertEquals(0, writer.getWritten());
+    }
+
+    @Test
+    public void testSpoolsWhileDownAndReplaysInOrder(@TempDir File spoolDir) throws InterruptedException {
+        statusCode.set(500);
+        InfluxDBSpool spool = new InfluxDBSpool(spoolDir, 20, 1024 * 1024);
+        InfluxDBWriter writer = new InfluxDBWriter(url(), "test", 100, 2, 10, spool, 100);
+        writer.start();
+        writer.offer("a v=1 1");
+        writer.offer("a v=2 2");
+        waitFor(() -> writer.getSpooled() == 2);
+        writer.offer("a v=3 3"); // spooled directly, InfluxDb still down
+        waitFor(() -> writer.getSpooled() == 3);
+        assertEquals(2, writer.getFailed());
+        assertTrue(writer.getSpoolSize() > 0);
+
+        bodies.clear();
+        statusCode.set(204);
+        waitFor(() -> writer.getWritten() == 3);
+        writer.stop();
+
+        assertEquals(List.of("a v=1 1\na v=2 2", "a v=3 3"), bodies);
+        assertTrue(spool.isEmpty());
+        assertEquals(0, writer.getSpoolSize());
+    }
+
+    @Test
+    public void testDropsRejectedBatchesInsteadOfSpooling(@TempDir File spoolDir) throws InterruptedException {
+        statusCode.set(500);
+        InfluxDBSpool spool = new InfluxDBSpool(spoolDir, 1024, 1024 * 1024);
+        InfluxDBWriter writer = new InfluxDBWriter(url(), "test", 100, 2, 10, spool, 100);
+        // one batch
+        writer.offer("a v=1 1");
+        writer.offer("bad v=\"x\" 2");
+        writer.start();
+        waitFor(() -> writer.getSpooled() == 2);
+
+        // the spooled batch is rejected on replay and must not block the spool
+        statusCode.set(204);
+        waitFor(() -> writer.getRejected() == 2 && spool.isEmpty());
+        writer.offer("a v=3 3");
+        waitFor(() -> writer.getWritten() == 1);
+        writer.offer("bad v=\"y\" 4");
+        waitFor(() -> writer.getRejected() == 3);
+        writer.stop();
+
+        assertTrue(spool.isEmpty());
+        assertEquals(2, writer.getSpooled());
+        assertEquals(2, writer.getFailed());
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timeout");
+            Thread.sleep(10);
+        }
+    }
+}
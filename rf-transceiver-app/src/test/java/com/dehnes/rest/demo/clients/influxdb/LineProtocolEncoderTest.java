@@ -0,0 +1,60 @@
+package com.dehnes.rest.demo.clients.influxdb;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineProtocolEncoderTest {
+
+    @Test
+    public void testEncodesPoint() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+
+        encoder.reset("sensor")
+                .tag("room", "bath")
+                .fieldCenti("temperature", 2134)
+                .fieldCenti("humidity", -5)
+                .fieldCenti("battery_volt", 300)
+                .field("counter", 42)
+                .field("door", true)
+                .timestamp(1600000000000L);
+        assertEquals("sensor,room=bath temperature=21.34,humidity=-0.05,battery_volt=3.00,counter=42,door=true 1600000000000",
+                encoder.toString());
+
+        // re-use keeps nothing from the previous point
+        encoder.reset("garage").field("light", false).timestamp(1);
+        assertEquals("garage light=false 1", encoder.toString());
+    }
+
+    @Test
+    public void testEscaping() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder();
+
+        encoder.reset("my sensor,x=1")
+                .tag("the room", "out=west,\u00e6")
+                .field("a=b", -1)
+                .timestamp(0);
+        assertEquals("my\\ sensor\\,x=1,the\\ room=out\\=west\\,\u00e6 a\\=b=-1 0", encoder.toString());
+    }
+
+    @Test
+    public void testGrowsBuffer() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder().reset("m");
+        StringBuilder expected = new StringBuilder("m");
+        for (int i = 0; i < 100; i++) {
+            encoder.field("field" + i, Long.MAX_VALUE);
+            expected.append(i == 0 ? ' ' : ',').append("field").append(i).append('=').append(Long.MAX_VALUE);
+        }
+        encoder.timestamp(5);
+        expected.append(" 5");
+        assertEquals(expected.toString(), encoder.toString());
+    }
+
+    @Test
+    public void testRejectsInvalidOrder() {
+        LineProtocolEncoder encoder = new LineProtocolEncoder().reset("m");
+        assertThrows(IllegalStateException.class, () -> encoder.timestamp(1));
+        encoder.field("a", 1);
+        assertThrows(IllegalStateException.class, () -> encoder.tag("t", "v"));
+    }
+}
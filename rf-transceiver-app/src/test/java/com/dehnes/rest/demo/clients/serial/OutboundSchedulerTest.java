@@ -0,0 +1,47 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundSchedulerTest {
+
+    @Test
+    public void testPriorityCoalescingAndReplacing() {
+        OutboundScheduler scheduler = new OutboundScheduler();
+        scheduler.setPriority(24, OutboundScheduler.Priority.INTERACTIVE);
+        scheduler.setPriority(27, OutboundScheduler.Priority.BACKGROUND);
+
+        SerialConnection.SendRequest poll1 = request(27, 1, false);
+        SerialConnection.SendRequest poll2 = request(27, 1, false);
+        SerialConnection.SendRequest open = request(24, 1, false);
+        SerialConnection.SendRequest close = request(24, 2, true);
+        SerialConnection.SendRequest other = request(6, 3, false);
+
+        scheduler.admit(poll1);
+        scheduler.admit(poll2); // identical, coalesced with poll1
+        scheduler.admit(open);
+        scheduler.admit(close); // replaces open
+        scheduler.admit(other);
+        assertEquals(3, scheduler.size());
+        assertTrue(open.getResult().isCancelled());
+
+        assertSame(close, scheduler.poll());
+        assertSame(other, scheduler.poll());
+        assertSame(poll1, scheduler.poll());
+        assertNull(scheduler.poll());
+        assertTrue(scheduler.isEmpty());
+
+        poll1.getResult().complete(true);
+        assertTrue(poll2.getResult().join());
+    }
+
+    private static SerialConnection.SendRequest request(int addr, int value, boolean replacePending) {
+        return new SerialConnection.SendRequest(
+                new SerialConnection.RfPacket(addr, new int[]{value}),
+                new CompletableFuture<>(),
+                replacePending);
+    }
+}
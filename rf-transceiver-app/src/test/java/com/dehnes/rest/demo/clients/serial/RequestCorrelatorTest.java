@@ -0,0 +1,111 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import com.dehnes.rest.server.metrics.Counter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCorrelatorTest {
+
+    private final List<SerialConnection.RfPacket> sent = new CopyOnWriteArrayList<>();
+    private final TimerWheel timerWheel = new TimerWheel("test", 5, 64);
+    private final RequestCorrelator correlator = new RequestCorrelator(
+            p -> {
+                sent.add(p);
+                return CompletableFuture.completedFuture(true);
+            },
+            timerWheel,
+            1000);
+
+    @AfterEach
+    public void stop() {
+        timerWheel.stop();
+    }
+
+    private static SerialConnection.RfPacket packet(int addr, int... message) {
+        return new SerialConnection.RfPacket(addr, message);
+    }
+
+    @Test
+    public void testMatchesRepliesByAddressAndType() throws Exception {
+        CompletableFuture<SerialConnection.RfPacket> result = correlator.request(packet(27, 1), p -> p.length() >= 5, 5000, 1);
+
+        assertFalse(correlator.onReceived(packet(24, 1, 2, 3, 4, 5)));
+        assertFalse(correlator.onReceived(packet(27, 1)));
+        assertFalse(result.isDone());
+
+        SerialConnection.RfPacket reply = packet(27, 1, 2, 3, 4, 5);
+        assertTrue(correlator.onReceived(reply));
+        assertSame(reply, result.get(1, TimeUnit.SECONDS));
+
+        // nothing in flight anymore
+        assertFalse(correlator.onReceived(reply));
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void testRetriesWithBackoff() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<SerialConnection.RfPacket> result = correlator.request(packet(27, 1), p -> true, 20, 3);
+
+        assertNull(result.get(5, TimeUnit.SECONDS));
+        long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(3, sent.size());
+        // 20 + 40 + 80
+        assertTrue(tookMs >= 140, "took " + tookMs);
+    }
+
+    @Test
+    public void testSendsOneRequestPerAddressAtATime() throws Exception {
+        CompletableFuture<SerialConnection.RfPacket> first = correlator.request(packet(27, 1), p -> true, 5000, 1);
+        CompletableFuture<SerialConnection.RfPacket> second = correlator.request(packet(27, 2), p -> true, 5000, 1);
+        CompletableFuture<SerialConnection.RfPacket> other = correlator.request(packet(24, 3), p -> true, 5000, 1);
+        assertEquals(2, sent.size());
+
+        assertTrue(correlator.onReceived(packet(27, 10)));
+        assertEquals(10, first.get(1, TimeUnit.SECONDS).u8(0));
+        assertEquals(3, sent.size());
+        assertEquals(2, sent.get(2).u8(0));
+
+        assertTrue(correlator.onReceived(packet(27, 20)));
+        assertEquals(20, second.get(1, TimeUnit.SECONDS).u8(0));
+        assertFalse(other.isDone());
+    }
+
+    @Test
+    public void testGivesUpWhenRequestsAreNeverWritten() throws Exception {
+        // like a disconnected transceiver
+        RequestCorrelator stuck = new RequestCorrelator(
+                p -> {
+                    sent.add(p);
+                    return new CompletableFuture<>();
+                },
+                timerWheel,
+                1000,
+                50,
+                new Counter(),
+                new Counter());
+
+        assertNull(stuck.request(packet(27, 1), p -> true, 20, 2).get(5, TimeUnit.SECONDS));
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void testFailsOutstandingRequestsOnClose() throws Exception {
+        CompletableFuture<SerialConnection.RfPacket> first = correlator.request(packet(27, 1), p -> true, 5000, 1);
+        CompletableFuture<SerialConnection.RfPacket> queued = correlator.request(packet(27, 2), p -> true, 5000, 1);
+
+        correlator.close();
+        assertNull(first.get(1, TimeUnit.SECONDS));
+        assertNull(queued.get(1, TimeUnit.SECONDS));
+        assertNull(correlator.request(packet(24, 3), p -> true, 5000, 1).get(1, TimeUnit.SECONDS));
+        assertFalse(correlator.onReceived(packet(27, 10)));
+        assertEquals(1, sent.size());
+    }
+}
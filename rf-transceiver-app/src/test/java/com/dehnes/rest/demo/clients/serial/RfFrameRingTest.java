@@ -0,0 +1,45 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfFrameRingTest {
+
+    @Test
+    public void testSkipsErrorsAndWrapsAround() {
+        RfFrameRing ring = new RfFrameRing(256);
+
+        // error code byte + invalid length header + a valid frame, repeated until the ring wraps several times
+        byte[] chunk = new byte[]{7, 0, 1, 1, 0, 0, 1, 5, 3, 10, (byte) 200, 99};
+        int frames = 0;
+        for (int i = 0; i < 100; i++) {
+            assertEquals(chunk.length, ring.write(chunk, 0, chunk.length));
+            assertTrue(ring.next());
+            assertEquals(1, ring.frameDst());
+            assertEquals(5, ring.frameFrom());
+            assertEquals(3, ring.frameLength());
+            assertEquals(10, ring.frameU8(0));
+            assertEquals(200, ring.frameU8(1));
+            assertEquals(99, ring.frameU8(2));
+            frames++;
+        }
+        assertEquals(100, frames);
+    }
+
+    @Test
+    public void testIncompleteFrame() {
+        RfFrameRing ring = new RfFrameRing(256);
+        byte[] frame = new byte[]{0, 1, 9, 2, 42, 43};
+
+        ring.write(frame, 0, 5);
+        assertFalse(ring.next());
+        ring.write(frame, 5, 1);
+        assertTrue(ring.next());
+        assertEquals(9, ring.frameFrom());
+        assertEquals(43, ring.frameU8(1));
+        assertFalse(ring.next());
+        assertEquals(0, ring.available());
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.dehnes.rest.demo.clients.serial;
+
+import com.dehnes.rest.demo.services.sensors.ChipCap2Decoder;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfPacketViewTest {
+
+    private static final byte[] chipCap2Frame = new byte[]{0, 1, 7, 9, 0x1a, 0x2b, 0x18, 0x40, 0x01, 0x20, 0x01, (byte) 0xb0, 5};
+
+    @Test
+    public void testAccessors() {
+        RfFrameRing ring = new RfFrameRing(256);
+        ring.write(chipCap2Frame, 0, chipCap2Frame.length);
+        assertTrue(ring.next());
+
+        RfPacketView view = new RfPacketView().wrap(ring);
+        assertEquals(7, view.getRemoteAddr());
+        assertEquals(9, view.length());
+        assertEquals(0x1a2b, view.u16be(0));
+        assertEquals(0x2b1a, view.u16le(0));
+        assertEquals(5, view.u8(8));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.u8(9));
+
+        SerialConnection.RfPacket copy = view.copy();
+        assertEquals(ChipCap2Decoder.getTemperature(view), ChipCap2Decoder.getTemperature(copy));
+        assertEquals(ChipCap2Decoder.getRelativeHumidity(view), ChipCap2Decoder.getRelativeHumidity(copy));
+    }
+
+    @Test
+    public void testDecodingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RfFrameRing ring = new RfFrameRing(256);
+        RfPacketView view = new RfPacketView();
+
+        decode(ring, view, 10000); // warm up
+        long before = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long sum = decode(ring, view, 100000);
+        long allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertNotEquals(0, sum);
+        // allow for some noise from the measurement itself
+        assertTrue(allocated < 1024, "Allocated " + allocated + " bytes");
+    }
+
+    private long decode(RfFrameRing ring, RfPacketView view, int packets) {
+        long sum = 0;
+        for (int i = 0; i < packets; i++) {
+            ring.write(chipCap2Frame, 0, chipCap2Frame.length);
+            while (ring.next()) {
+                SerialConnection.RfPacket p = view.wrap(ring);
+                sum += ChipCap2Decoder.getTemperature(p) + ChipCap2Decoder.getRelativeHumidity(p) + p.u8(8);
+            }
+        }
+        return sum;
+    }
+}
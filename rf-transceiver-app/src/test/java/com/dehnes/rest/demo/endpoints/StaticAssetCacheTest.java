@@ -0,0 +1,39 @@
+package com.dehnes.rest.demo.endpoints;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticAssetCacheTest {
+
+    @Test
+    public void testLoadsClasspathAssets() throws Exception {
+        StaticAssetCache cache = new StaticAssetCache();
+
+        StaticAssetCache.Asset index = cache.get("/index.html");
+        assertNotNull(index);
+        assertEquals("text/html", index.getContentType());
+        assertEquals("image/svg+xml", cache.get("/octicons/octicons.svg").getContentType());
+        assertNull(cache.get("/"));
+        assertNull(cache.get("/does-not-exist.html"));
+
+        // the gzip variant inflates to the content
+        ByteBuffer content = index.getContent();
+        byte[] expected = new byte[content.remaining()];
+        content.get(expected);
+        ByteBuffer gzip = index.getGzipContent();
+        byte[] gzipped = new byte[gzip.remaining()];
+        gzip.get(gzipped);
+        assertTrue(gzipped.length < expected.length);
+        assertArrayEquals(expected, new GZIPInputStream(new ByteArrayInputStream(gzipped)).readAllBytes());
+
+        // buffers are handed out as duplicates
+        assertEquals(expected.length, index.getContent().remaining());
+        assertNotEquals(index.getEtag(), index.getGzipEtag());
+        assertEquals(0, index.getLastModified() % 1000);
+    }
+}
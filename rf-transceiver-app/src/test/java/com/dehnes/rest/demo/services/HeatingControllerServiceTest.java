@@ -0,0 +1,67 @@
+package com.dehnes.rest.demo.services;
+
+import com.dehnes.rest.demo.clients.serial.RequestCorrelator;
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import com.dehnes.rest.demo.clients.serial.TimerWheel;
+import com.dehnes.rest.demo.services.sensors.SensorDecoder;
+import com.dehnes.rest.demo.services.sensors.Sht15Decoder;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeatingControllerServiceTest {
+
+    private static final int HEATER = 27;
+
+    @Test
+    public void testStaleReportIsNoReplyToSwitching() throws Exception {
+        SensorDecoder decoder = new Sht15Decoder(new String[]{"heater_status"});
+        int heaterStatusField = decoder.indexOf("heater_status");
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        TimerWheel timerWheel = new TimerWheel("test", 5, 64);
+        RequestCorrelator correlator = new RequestCorrelator(p -> written, timerWheel, 1000);
+        try {
+            CompletableFuture<SerialConnection.RfPacket> reply = correlator.request(
+                    new SerialConnection.RfPacket(HEATER, new int[]{HeatingControllerService.COMMAND_SWITCH_ON_HEATER}),
+                    HeatingControllerService.isReplyTo(HeatingControllerService.COMMAND_SWITCH_ON_HEATER, decoder, heaterStatusField),
+                    5000,
+                    1);
+
+            // a regular report, before and after the command went out
+            SerialConnection.RfPacket heaterOn = report(1);
+            assertFalse(correlator.onReceived(heaterOn));
+            written.complete(true);
+            assertFalse(correlator.onReceived(report(0)));
+            assertFalse(reply.isDone());
+
+            assertTrue(correlator.onReceived(heaterOn));
+            SerialConnection.RfPacket packet = reply.get(1, TimeUnit.SECONDS);
+            assertEquals(1, packet.u8(4));
+        } finally {
+            correlator.close();
+            timerWheel.stop();
+        }
+    }
+
+    @Test
+    public void testAnyStatusAnswersReading() {
+        SensorDecoder decoder = new Sht15Decoder(new String[]{"heater_status"});
+        int heaterStatusField = decoder.indexOf("heater_status");
+
+        assertTrue(HeatingControllerService.isReplyTo(HeatingControllerService.COMMAND_READ_STATUS, decoder, heaterStatusField).test(report(0)));
+        assertTrue(HeatingControllerService.isReplyTo(HeatingControllerService.COMMAND_SWITCH_OFF_HEATER, decoder, heaterStatusField).test(report(0)));
+        assertFalse(HeatingControllerService.isReplyTo(HeatingControllerService.COMMAND_SWITCH_OFF_HEATER, decoder, heaterStatusField).test(report(1)));
+        assertFalse(HeatingControllerService.isReplyTo(HeatingControllerService.COMMAND_READ_STATUS, decoder, heaterStatusField).test(
+                new SerialConnection.RfPacket(HEATER, new int[]{1})));
+    }
+
+    /**
+     * @return a status report of 21.9 degrees and 1500 humidity
+     */
+    private static SerialConnection.RfPacket report(int heaterStatus) {
+        return new SerialConnection.RfPacket(HEATER, new int[]{0x18, 0x38, 0x05, 0xDC, heaterStatus});
+    }
+}
@@ -0,0 +1,70 @@
+package com.dehnes.rest.demo.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkQualityTrackerTest {
+
+    @Test
+    public void testCountsLossesAndDropsDuplicates() {
+        LinkQualityTracker tracker = new LinkQualityTracker(10_000);
+        tracker.setName(2, "bath");
+
+        assertTrue(tracker.onPacket(2, 254, 0));
+        assertFalse(tracker.onPacket(2, 254, 500)); // retransmission
+        assertTrue(tracker.onPacket(2, 255, 60_000));
+        assertTrue(tracker.onPacket(2, 2, 240_000)); // wrapped, 0 and 1 lost
+        assertTrue(tracker.onPacket(2, 3, 300_000));
+        assertFalse(tracker.onPacket(2, 3, 301_000));
+        assertTrue(tracker.onPacket(2, 3, 400_000)); // same counter, but much later
+        assertTrue(tracker.onPacket(7, 100, 400_000));
+
+        LinkQualityTracker.Link link = tracker.getLinks().get(0);
+        assertEquals(2, link.getAddress());
+        assertEquals("bath", link.getName());
+        assertEquals(5, link.getReceived());
+        assertEquals(2, link.getLost());
+        assertEquals(2, link.getDuplicates());
+        assertEquals(1, link.getRestarts());
+        assertEquals(3, link.getLastCounter());
+        assertEquals(400_000, link.getLastSeen());
+        assertEquals(2D / 7, link.getLossRatio(), 0.0001);
+
+        LinkQualityTracker.Link other = tracker.getLinks().get(1);
+        assertEquals(7, other.getAddress());
+        assertNull(other.getName());
+        assertEquals(1, other.getReceived());
+        assertEquals(0, other.getLossRatio());
+        assertEquals(2, tracker.getLinks().size());
+    }
+
+    @Test
+    public void testTakesBigStepsAsRestart() {
+        LinkQualityTracker tracker = new LinkQualityTracker(10_000);
+        tracker.onPacket(3, 200, 0);
+        tracker.onPacket(3, 150, 60_000); // went backwards
+
+        LinkQualityTracker.Link link = tracker.getLinks().get(0);
+        assertEquals(0, link.getLost());
+        assertEquals(1, link.getRestarts());
+    }
+
+    @Test
+    public void testJitter() {
+        LinkQualityTracker tracker = new LinkQualityTracker(10_000);
+        long t = 0;
+        for (int i = 0; i < 200; i++) {
+            tracker.onPacket(4, i, t);
+            t += 60_000 + (i % 2 == 0 ? 1000 : -1000);
+        }
+        LinkQualityTracker.Link link = tracker.getLinks().get(0);
+        assertEquals(60_000, link.getMeanIntervalMs(), 100);
+        assertEquals(1000, link.getJitterMs(), 100);
+
+        // losses do not count as jitter, 200 and 201 are lost
+        tracker.onPacket(4, 202, t + 120_000);
+        assertEquals(60_000, tracker.getLinks().get(0).getMeanIntervalMs(), 100);
+        assertEquals(2, tracker.getLinks().get(0).getLost());
+    }
+}
@@ -0,0 +1,100 @@
+package com.dehnes.rest.demo.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistenceServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testDebouncesWritesUntilQuiet() throws Exception {
+        Path file = dir.resolve("storage.properties");
+        PersistenceService persistenceService = new PersistenceService(file, 200, 60_000, false);
+
+        persistenceService.set("a", "1");
+        persistenceService.set("a", "2");
+        assertEquals("x", persistenceService.get("b", "x"));
+        assertEquals("2", persistenceService.get("a", null));
+        assertFalse(Files.exists(file));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(dir.resolve("storage.properties.tmp")));
+
+        PersistenceService reloaded = new PersistenceService(file, 200, 60_000, false);
+        assertEquals("2", reloaded.get("a", null));
+        assertEquals("x", reloaded.get("b", null));
+        persistenceService.stop();
+        reloaded.stop();
+    }
+
+    @Test
+    public void testWritesContinuousChangesAfterMaxWait() throws Exception {
+        Path file = dir.resolve("storage.properties");
+        PersistenceService persistenceService = new PersistenceService(file, 60_000, 200, false);
+
+        // never quiet for the debounce time
+        long deadline = System.currentTimeMillis() + 5000;
+        for (int i = 0; !Files.exists(file) && System.currentTimeMillis() < deadline; i++) {
+            persistenceService.set("a", String.valueOf(i));
+            Thread.sleep(20);
+        }
+        assertTrue(Files.exists(file));
+        persistenceService.stop();
+    }
+
+    @Test
+    public void testWritesPendingChangesOnStop() {
+        Path file = dir.resolve("storage.properties");
+        PersistenceService persistenceService = new PersistenceService(file, 60_000, 60_000, true);
+        persistenceService.set("a", "1");
+        persistenceService.set("a", null);
+        persistenceService.set("c", "3");
+        persistenceService.stop();
+
+        PersistenceService reloaded = new PersistenceService(file, 60_000, 60_000, false);
+        assertNull(reloaded.get("a", null));
+        assertEquals("3", reloaded.get("c", null));
+        reloaded.stop();
+    }
+
+    @Test
+    public void testWritesChangesAfterStopRightAway() {
+        Path file = dir.resolve("storage.properties");
+        PersistenceService persistenceService = new PersistenceService(file, 60_000, 60_000, false);
+        persistenceService.stop();
+        persistenceService.set("a", "1");
+
+        PersistenceService reloaded = new PersistenceService(file, 60_000, 60_000, false);
+        assertEquals("1", reloaded.get("a", null));
+        reloaded.stop();
+    }
+
+    @Test
+    public void testRetriesFailedWrites() throws Exception {
+        Path file = dir.resolve("missing").resolve("storage.properties");
+        PersistenceService persistenceService = new PersistenceService(file, 10, 200, false);
+        persistenceService.set("a", "1");
+        persistenceService.flush();
+        assertFalse(Files.exists(file));
+
+        // without any further change
+        Files.createDirectories(file.getParent());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(Files.exists(file));
+        persistenceService.stop();
+    }
+}
@@ -0,0 +1,78 @@
+package com.dehnes.rest.demo.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingWindowTest {
+
+    @Test
+    public void testAggregates() {
+        RollingWindow window = new RollingWindow(1000, 10);
+        assertNull(window.aggregate(0));
+
+        window.add(10_000, 20);
+        window.add(10_500, 22);
+        window.add(13_000, 18);
+        window.add(14_000, 24);
+
+        RollingWindow.Aggregate aggregate = window.aggregate(14_000);
+        assertEquals(4, aggregate.getCount());
+        assertEquals(21, aggregate.getMean(), 0.0001);
+        assertEquals(18, aggregate.getMin());
+        assertEquals(24, aggregate.getMax());
+        assertEquals(24, aggregate.getLatest());
+        assertEquals(14_000, aggregate.getLatestTimestamp());
+        // +4 in 4 seconds
+        assertEquals(3600, aggregate.getRatePerHour(), 0.0001);
+    }
+
+    @Test
+    public void testForecastsWithinTheRange() {
+        long t = 1_600_000_000_000L;
+        RollingWindow window = new RollingWindow(60_000, 60);
+        // falling 2 degrees per hour
+        window.add(t, 10);
+        window.add(t + 1800_000, 9);
+        window.add(t + 3540_000, 8.0333);
+
+        RollingWindow.Aggregate aggregate = window.aggregate(t + 3540_000);
+        assertEquals(8.0333, aggregate.forecast(0), 0.0001);
+        assertEquals(7.0333, aggregate.forecast(1800_000), 0.01);
+
+        // no more than the range of the window beyond it
+        assertEquals(8.0333 - (10 - 8.0333), aggregate.forecast(36000_000), 0.0001);
+
+        // a steep rate between two close samples
+        window = new RollingWindow(60_000, 60);
+        window.add(t, 5);
+        window.add(t + 1000, 5.5);
+        assertEquals(6, window.aggregate(t + 1000).forecast(3600_000), 0.0001);
+    }
+
+    @Test
+    public void testSlidesByBuckets() {
+        RollingWindow window = new RollingWindow(1000, 10);
+        window.add(10_000, 100);
+        window.add(15_000, 1);
+
+        assertEquals(2, window.aggregate(19_999).getCount());
+
+        // the bucket of 10_000 dropped out of the window
+        RollingWindow.Aggregate aggregate = window.aggregate(20_000);
+        assertEquals(1, aggregate.getCount());
+        assertEquals(1, aggregate.getMax());
+
+        // re-using the slot of 10_000 resets it
+        window.add(20_000, 5);
+        aggregate = window.aggregate(20_000);
+        assertEquals(2, aggregate.getCount());
+        assertEquals(3, aggregate.getMean(), 0.0001);
+
+        // samples older than the window are ignored
+        window.add(10_001, 1000);
+        assertEquals(5, window.aggregate(20_000).getMax());
+
+        assertNull(window.aggregate(40_000));
+    }
+}
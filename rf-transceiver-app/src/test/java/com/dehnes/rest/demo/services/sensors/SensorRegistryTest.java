@@ -0,0 +1,120 @@
+package com.dehnes.rest.demo.services.sensors;
+
+import com.dehnes.rest.demo.clients.serial.SerialConnection;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorRegistryTest {
+
+    @Test
+    public void testLoadsEntriesAndRanges() {
+        SensorRegistry registry = new SensorRegistry(config(
+                "2", "chipcap2,bath",
+                "40-42", "chipcap2,spare-{addr}",
+                "24", "adc,garage_door@garage,light<11,,door>100",
+                "27", "sht15,heating_controller,heater_status"));
+
+        assertEquals(6, registry.getSensors().size());
+        assertEquals(2, registry.getSensors().get(0).getAddress());
+        assertEquals("spare-41", registry.get(41).getName());
+        assertSame(registry.get(40).getDecoder(), registry.get(42).getDecoder());
+        assertNull(registry.get(3));
+        assertNull(registry.get(300));
+        assertEquals(4, registry.getMaxFieldCount());
+
+        SensorRegistry.Sensor bath = registry.getByName("bath");
+        assertEquals("sensor", bath.getMeasurement());
+        assertTrue(bath.isTagged());
+
+        SensorRegistry.Sensor garageDoor = registry.getByName("garage_door");
+        assertEquals(24, garageDoor.getAddress());
+        assertEquals("garage", garageDoor.getMeasurement());
+        assertFalse(garageDoor.isTagged());
+
+        assertThrows(RuntimeException.class, () -> registry.getByName("kitchen"));
+    }
+
+    @Test
+    public void testRejectsInvalidEntries() {
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "chipcap2,bath", "1-3", "chipcap2,x{addr}")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "chipcap2,bath", "3", "chipcap2,bath")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("4-5", "chipcap2,same")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("256", "chipcap2,bath")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "chipcap2")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "adc,door,,")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "java.lang.String,bath")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "chipcap2,bath@sensor")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2", "chipcap2,a@garage", "3", "chipcap2,b@garage")));
+        assertThrows(RuntimeException.class, () -> new SensorRegistry(config("2-3", "chipcap2,x{addr}@garage")));
+    }
+
+    @Test
+    public void testDecodes() {
+        SensorRegistry registry = new SensorRegistry(config(
+                "2", "chipcap2,bath",
+                "24", "adc,garage_door@garage,light<11,,door>100",
+                "27", "sht15,heating_controller,heater_status"));
+        int[] values = new int[registry.getMaxFieldCount()];
+
+        SensorDecoder chipCap2 = registry.get(2).getDecoder();
+        SerialConnection.RfPacket p = new SerialConnection.RfPacket(2, new int[]{0x1C, 0x00, 0x18, 0x00, 0x01, 0x20, 0x01, 0xA0, 7});
+        assertTrue(chipCap2.decode(p, values));
+        assertEquals(2187, values[chipCap2.indexOf("temperature")]);
+        assertEquals(4375, values[chipCap2.indexOf("humidity")]);
+        assertEquals(0x120, values[chipCap2.indexOf("light")]);
+        assertEquals(7, chipCap2.counter(p));
+        // -40 degrees is implausible
+        assertFalse(chipCap2.decode(new SerialConnection.RfPacket(2, new int[]{0, 0, 0, 0, 0, 0, 0, 0, 0}), values));
+
+        SensorDecoder adc = registry.get(24).getDecoder();
+        assertEquals(2, adc.getFieldCount());
+        assertEquals(6, adc.getMinLength());
+        assertEquals(-1, adc.counter(p));
+        assertTrue(adc.decode(new SerialConnection.RfPacket(24, new int[]{10, 0, 0xFF, 0xFF, 0x20, 0x03}), values));
+        assertEquals(SensorDecoder.Kind.BOOLEAN, adc.getFieldKind(adc.indexOf("door")));
+        assertEquals(1, values[adc.indexOf("light")]);
+        assertEquals(1, values[adc.indexOf("door")]);
+        adc.decode(new SerialConnection.RfPacket(24, new int[]{11, 0, 0, 0, 100, 0}), values);
+        assertEquals(0, values[adc.indexOf("light")]);
+        assertEquals(0, values[adc.indexOf("door")]);
+
+        SensorDecoder sht15 = registry.get(27).getDecoder();
+        assertTrue(sht15.decode(new SerialConnection.RfPacket(27, new int[]{0x18, 0x38, 0x05, 0xDC, 1}), values));
+        assertEquals(2190, values[sht15.indexOf("temperature")]);
+        assertEquals(1, values[sht15.indexOf("heater_status")]);
+    }
+
+    @Test
+    public void testCustomDecoder() {
+        SensorRegistry registry = new SensorRegistry(config("30", CountingDecoder.class.getName() + ",cellar,pulses"));
+        SensorDecoder decoder = registry.get(30).getDecoder();
+        assertEquals("pulses", decoder.getFieldName(0));
+
+        int[] values = new int[1];
+        assertTrue(decoder.decode(new SerialConnection.RfPacket(30, new int[]{0x12, 0x34}), values));
+        assertEquals(0x1234, values[0]);
+    }
+
+    public static class CountingDecoder extends SensorDecoder {
+        public CountingDecoder(String[] options) {
+            super(options, new Kind[]{Kind.INT}, 2);
+        }
+
+        @Override
+        public boolean decode(SerialConnection.RfPacket p, int[] values) {
+            values[0] = p.u16be(0);
+            return true;
+        }
+    }
+
+    private static Properties config(String... entries) {
+        Properties properties = new Properties();
+        for (int i = 0; i < entries.length; i += 2) {
+            properties.setProperty(entries[i], entries[i + 1]);
+        }
+        return properties;
+    }
+}
@@ -6,8 +6,12 @@ import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -23,21 +27,78 @@ public abstract class AbstractRestHandler implements TriConsumer<HttpServletRequ
             MimeTypes.Type.TEXT_JSON
     );
 
+    private static final long maxBodyBytes = Long.parseLong(System.getProperty("MAX_REQUEST_BODY_BYTES", String.valueOf(1024 * 1024)));
+    private static final long asyncTimeoutMs = Long.parseLong(System.getProperty("JETTY_ASYNC_TIMEOUT_MS", "60000"));
+
     private final ThreadLocal<HttpServletRequest> currentRequest = new ThreadLocal<>();
 
     @Override
     public void accept(HttpServletRequest request, HttpServletResponse response, List<String> fields) {
+        Executor executor = (Executor) request.getAttribute(ExecutionMode.ASYNC_EXECUTOR_ATTRIBUTE);
+        if (executor == null) {
+            process(request, response, fields, (code, o) -> RestResponseUtils.setJsonResponse(response, code, o));
+            return;
+        }
+
+        // complete on the executor, the Jetty worker is released right away
+        request.setAttribute(ExecutionMode.ASYNC_HANDLED_ATTRIBUTE, Boolean.TRUE);
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(asyncTimeoutMs);
+        AtomicBoolean done = new AtomicBoolean(false);
+        BiConsumer<Integer, Object> onDone = (code, o) -> {
+            if (done.compareAndSet(false, true)) {
+                try {
+                    RestResponseUtils.setJsonResponse(response, code, o);
+                } finally {
+                    asyncContext.complete();
+                }
+            }
+        };
+        asyncContext.addListener(new AsyncListenerAdapter() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                onDone.accept(503, "Timed out after " + asyncTimeoutMs + "ms");
+            }
+        });
+
+        executor.execute(() -> {
+            try {
+                process(request, response, fields, onDone);
+            } catch (Exception e) {
+                String message = e.getMessage();
+                onDone.accept(500, message == null ? e.getClass().getSimpleName() : message);
+            }
+        });
+    }
+
+    /**
+     * Reads the body and calls {@link #handle} with the request available from {@link #getRequest()}, on the
+     * calling thread.
+     */
+    void process(HttpServletRequest request, HttpServletResponse response, List<String> fields, BiConsumer<Integer, Object> onDone) {
         currentRequest.set(request);
         try {
 
+            if (request.getContentLengthLong() > maxBodyBytes) {
+                onDone.accept(413, "Request body exceeds " + maxBodyBytes + " bytes");
+                return;
+            }
+
             JSONObject body;
             try {
                 if (request.getContentLength() > 0) {
                     assertIsJson(request.getContentType());
-                    body = new JSONObject(extractBody(request));
+                    String charSet = MimeTypes.getCharsetFromContentType(request.getContentType());
+                    body = JsonCodec.readObject(
+                            request.getInputStream(),
+                            charSet == null ? null : Charset.forName(charSet),
+                            maxBodyBytes);
                 } else {
                     body = null;
                 }
+            } catch (JsonCodec.BodyTooLargeException e) {
+                onDone.accept(413, e.getMessage());
+                return;
             } catch (Exception e) {
                 throw new RuntimeException("Could not read body from request", e);
             }
@@ -46,7 +107,7 @@ public abstract class AbstractRestHandler implements TriConsumer<HttpServletRequ
                     fields,
                     request.getParameterMap(),
                     body,
-                    (code, o) -> RestResponseUtils.setJsonResponse(response, code, o));
+                    onDone);
 
         } finally {
             currentRequest.remove();
@@ -0,0 +1,26 @@
+package com.dehnes.rest.server;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * An {@link AsyncListener} which ignores all events, override the ones of interest.
+ */
+abstract class AsyncListenerAdapter implements AsyncListener {
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+    }
+
+    @Override
+    public final void onStartAsync(AsyncEvent event) {
+    }
+}
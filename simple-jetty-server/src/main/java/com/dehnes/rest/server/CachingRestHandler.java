@@ -0,0 +1,177 @@
+package com.dehnes.rest.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.MimeTypes;
+
+import com.dehnes.rest.server.config.TriConsumer;
+
+/**
+ * Caches the encoded 200 responses of a read-only handler, with ETag support.
+ * <p>
+ * A cached response is served as long as it is younger than the TTL and the version reported by the underlying
+ * state has not changed since it was built, so changes become visible right away while repeated polling only
+ * copies bytes. Clients revalidating with If-None-Match get a 304 without a body. At most 256 responses are
+ * kept, the least recently used one is dropped first.
+ * <p>
+ * The delegate must complete synchronously, like handlers reading in-memory state do.
+ */
+public class CachingRestHandler implements TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> {
+
+    private static final int MAX_ENTRIES = 256;
+
+    private final AbstractRestHandler delegate;
+    private final long ttlNanos;
+    private final LongSupplier version;
+    private final Map<String, Entry> entries;
+
+    /**
+     * @param ttlMs   max age of a cached response, even if the version did not change
+     * @param version changes whenever the state behind the delegate changes
+     */
+    public CachingRestHandler(AbstractRestHandler delegate, long ttlMs, LongSupplier version) {
+        this(delegate, ttlMs, version, MAX_ENTRIES);
+    }
+
+    CachingRestHandler(AbstractRestHandler delegate, long ttlMs, LongSupplier version, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlNanos = ttlMs * 1_000_000;
+        this.version = version;
+        this.entries = Collections.synchronizedMap(new LruMap(maxEntries));
+    }
+
+    @Override
+    public void accept(HttpServletRequest request, HttpServletResponse response, List<String> fields) {
+        String key = request.getQueryString() == null
+                ? request.getRequestURI()
+                : request.getRequestURI() + "?" + request.getQueryString();
+
+        long currentVersion = version.getAsLong();
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != currentVersion || now - entry.createdNanos > ttlNanos) {
+            Object[] result = new Object[2];
+            delegate.process(request, response, fields, (code, body) -> {
+                result[0] = code;
+                result[1] = body;
+            });
+            if (result[0] == null) {
+                throw new IllegalStateException(delegate.getClass().getSimpleName() + " did not complete synchronously");
+            }
+            if ((Integer) result[0] != 200) {
+                RestResponseUtils.setJsonResponse(response, (Integer) result[0], result[1]);
+                return;
+            }
+
+            entry = new Entry(encode(result[1]), currentVersion, now);
+            entries.put(key, entry);
+        }
+
+        response.setHeader("ETag", entry.etag);
+        response.setHeader("Cache-Control", "no-cache");
+        if (matches(request.getHeader("If-None-Match"), entry.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            try {
+                response.flushBuffer();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        try {
+            response.setStatus(200);
+            response.setContentType(MimeTypes.Type.APPLICATION_JSON.asString());
+            response.setContentLength(entry.body.length);
+            ServletOutputStream outputStream = response.getOutputStream();
+            outputStream.write(entry.body);
+            outputStream.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void invalidate() {
+        entries.clear();
+    }
+
+    private static byte[] encode(Object body) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonCodec.write(out, body);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.append('"').toString();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class LruMap extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachingRestHandler.Entry> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] body;
+        private final String etag;
+        private final long version;
+        private final long createdNanos;
+
+        private Entry(byte[] body, long version, long createdNanos) {
+            this.body = body;
+            this.etag = etag(body);
+            this.version = version;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.dehnes.rest.server;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -12,49 +17,99 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.dehnes.rest.server.metrics.Counter;
+import com.dehnes.rest.server.metrics.Histogram;
+import com.dehnes.rest.server.metrics.MetricsRegistry;
+import com.dehnes.rest.server.route.Route;
+import com.dehnes.rest.server.route.RouteTrie;
 import com.dehnes.rest.server.route.RoutesFactory;
 import com.dehnes.rest.server.utils.Tuple;
 
 public class EmbeddedJetty {
     private static final Logger logger = LoggerFactory.getLogger(EmbeddedJetty.class);
 
+    private static final String EVENT_STREAM = "text/event-stream";
+
+    private final Histogram requestDuration;
+    // by status class, 1xx to 5xx
+    private final Counter[] responses = new Counter[5];
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile Tuple<List<Route>, RouteTrie> compiled;
+
+    public EmbeddedJetty() {
+        this(new MetricsRegistry());
+    }
+
+    public EmbeddedJetty(MetricsRegistry metricsRegistry) {
+        this.requestDuration = metricsRegistry.histogram(
+                "http_request_duration_seconds",
+                "Time from receiving a request until it was handled, without event streams");
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = metricsRegistry.counter("http_responses_total", "Responses by status class", "code", (i + 1) + "xx");
+        }
+        metricsRegistry.gauge("http_requests_in_flight", "Requests being handled, including open event streams", inFlight::get);
+    }
+
     public Server start(int port, RoutesFactory routesFactory) throws Exception {
+        return start(port, routesFactory, ExecutionMode.fromConfig(), Integer.parseInt(System.getProperty("JETTY_MAX_THREADS", "100")));
+    }
+
+    public Server start(int port, RoutesFactory routesFactory, ExecutionMode executionMode, int maxThreads) throws Exception {
 
         // setup the server
-        Server server = new Server(new QueuedThreadPool(100, 10, 60000, new ArrayBlockingQueue<>(100)));
+        Server server = new Server(new QueuedThreadPool(maxThreads, 10, 60000, new ArrayBlockingQueue<>(100)));
         ServerConnector serverConnector = new ServerConnector(server);
         serverConnector.setPort(port);
+        // room for bursts of new connections, the OS default makes clients wait for a SYN retransmit
+        serverConnector.setAcceptQueueSize(Integer.parseInt(System.getProperty("JETTY_ACCEPT_QUEUE_SIZE", "256")));
         server.setConnectors(new ServerConnector[]{serverConnector});
         server.setStopAtShutdown(true);
 
+        ExecutorService executor = executionMode == ExecutionMode.POOL
+                ? null
+                : ExecutionMode.newThreadPerTaskExecutor(executionMode == ExecutionMode.VIRTUAL ? "request" : "restHandler");
+        if (executor != null) {
+            server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+                @Override
+                public void lifeCycleStopped(LifeCycle event) {
+                    executor.shutdown();
+                }
+            });
+        }
+        logger.info("Executing requests in mode " + executionMode);
+
         server.setHandler(new AbstractHandler() {
             @Override
             public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-                Exception e = null;
-                Tuple<HttpServletRequest, HttpServletResponse> t = routesFactory.preRouting(request, response);
-                final HttpServletRequest req = t.x;
-                final HttpServletResponse resp = t.y;
-
-                try {
-                    HttpMethod httpMethod = HttpMethod.fromString(baseRequest.getMethod());
-
-                    routesFactory.getRoutes(baseRequest.getHeader("Accept")).stream()
-                            .filter(r -> !resp.isCommitted())
-                            .filter(r -> r.test(httpMethod, target))
-                            .forEach(r -> r.execute(req, resp));
-
-                    if (!resp.isCommitted()) {
-                        RestResponseUtils.setJsonResponse(resp, 404, "No handler found for " + httpMethod + " " + target);
-                    }
-                } catch (Exception ex) {
-                    e = ex;
-                    RestResponseUtils.internalServer(resp, e);
-                } finally {
-                    routesFactory.postRouting(req, resp, e);
+                long startNanos = System.nanoTime();
+                switch (executionMode) {
+                    case VIRTUAL:
+                        AsyncContext asyncContext = request.startAsync();
+                        asyncContext.setTimeout(0);
+                        executor.execute(() -> {
+                            try {
+                                route(routesFactory, target, baseRequest, request, response, startNanos);
+                            } finally {
+                                // unless a handler took over the request, like a stream
+                                if (request.getAttribute(ExecutionMode.ASYNC_HANDLED_ATTRIBUTE) == null) {
+                                    asyncContext.complete();
+                                }
+                            }
+                        });
+                        break;
+                    case ASYNC:
+                        request.setAttribute(ExecutionMode.ASYNC_EXECUTOR_ATTRIBUTE, executor);
+                        route(routesFactory, target, baseRequest, request, response, startNanos);
+                        break;
+                    default:
+                        route(routesFactory, target, baseRequest, request, response, startNanos);
                 }
             }
         });
@@ -75,4 +130,67 @@ public class EmbeddedJetty {
         return server;
     }
 
+    private void route(RoutesFactory routesFactory, String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response, long startNanos) {
+        Exception e = null;
+        Tuple<HttpServletRequest, HttpServletResponse> t = routesFactory.preRouting(request, response);
+        final HttpServletRequest req = t.x;
+        final HttpServletResponse resp = t.y;
+        boolean handledAsync = false;
+        inFlight.incrementAndGet();
+
+        try {
+            HttpMethod httpMethod = HttpMethod.fromString(baseRequest.getMethod());
+
+            routeTrie(routesFactory.getRoutes(baseRequest.getHeader("Accept")))
+                    .dispatch(httpMethod, target, req, resp);
+
+            handledAsync = req.getAttribute(ExecutionMode.ASYNC_HANDLED_ATTRIBUTE) != null;
+            if (!handledAsync && !resp.isCommitted()) {
+                RestResponseUtils.setJsonResponse(resp, 404, "No handler found for " + httpMethod + " " + target);
+            }
+        } catch (Exception ex) {
+            e = ex;
+            RestResponseUtils.internalServer(resp, e);
+        } finally {
+            if (handledAsync) {
+                // the handler completes the request later
+                req.getAsyncContext().addListener(new AsyncListenerAdapter() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        routesFactory.postRouting(req, resp, null);
+                        recordResponse(resp, startNanos);
+                    }
+                });
+            } else {
+                routesFactory.postRouting(req, resp, e);
+                recordResponse(resp, startNanos);
+            }
+        }
+    }
+
+    private void recordResponse(HttpServletResponse resp, long startNanos) {
+        inFlight.decrementAndGet();
+        int statusClass = resp.getStatus() / 100;
+        if (statusClass >= 1 && statusClass <= responses.length) {
+            responses[statusClass - 1].increment();
+        }
+        // streams stay open for as long as the client listens
+        String contentType = resp.getContentType();
+        if (contentType == null || !contentType.startsWith(EVENT_STREAM)) {
+            requestDuration.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Compiles the routes once per list instance, factories usually return the same list for every request.
+     */
+    private RouteTrie routeTrie(List<Route> routes) {
+        Tuple<List<Route>, RouteTrie> compiled = this.compiled;
+        if (compiled == null || compiled.x != routes) {
+            compiled = new Tuple<>(routes, new RouteTrie(routes));
+            this.compiled = compiled;
+        }
+        return compiled.y;
+    }
+
 }
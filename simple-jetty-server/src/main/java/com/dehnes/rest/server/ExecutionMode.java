@@ -0,0 +1,68 @@
+package com.dehnes.rest.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How {@link EmbeddedJetty} executes requests, configured by JETTY_EXECUTION_MODE.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Everything runs on the Jetty worker threads, a blocking handler holds its worker.
+     */
+    POOL,
+
+    /**
+     * Each request is handed off to a thread of its own, virtual where the JVM supports it, so a blocking
+     * handler never holds a Jetty worker.
+     */
+    VIRTUAL,
+
+    /**
+     * Routing runs on the Jetty workers, but {@link AbstractRestHandler}s run on a separate executor and
+     * complete the request via its AsyncContext.
+     */
+    ASYNC;
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionMode.class);
+
+    /**
+     * Request attribute with the executor an {@link AbstractRestHandler} should complete the request on.
+     */
+    public static final String ASYNC_EXECUTOR_ATTRIBUTE = ExecutionMode.class.getName() + ".asyncExecutor";
+
+    /**
+     * Request attribute set once a handler took over the request asynchronously, no further routes run then.
+     */
+    public static final String ASYNC_HANDLED_ATTRIBUTE = ExecutionMode.class.getName() + ".asyncHandled";
+
+    public static ExecutionMode fromConfig() {
+        return valueOf(System.getProperty("JETTY_EXECUTION_MODE", POOL.name()).toUpperCase());
+    }
+
+    /**
+     * @return a virtual-thread-per-task executor if the JVM has one, otherwise a cached pool of named threads
+     */
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.info("No virtual threads in this JVM, using a cached thread pool for " + name);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+}
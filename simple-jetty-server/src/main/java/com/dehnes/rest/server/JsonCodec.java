@@ -0,0 +1,278 @@
+package com.dehnes.rest.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Streaming JSON reading and writing for the REST handlers.
+ * <p>
+ * Request bodies are pulled token by token from the input stream straight into org.json objects, without
+ * buffering the body or building a String first. Responses are written compactly into the output stream.
+ * Objects which are not org.json, maps, collections or plain values are written by Gson, as before, also when
+ * nested in a map or collection.
+ */
+public class JsonCodec {
+
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    private static final Gson gson = new Gson();
+
+    /**
+     * Thrown when a request body is larger than allowed.
+     */
+    public static class BodyTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BodyTooLargeException(long maxBytes) {
+            super("Request body exceeds " + maxBytes + " bytes");
+        }
+    }
+
+    /**
+     * Parses a JSON object from the stream, reading at most maxBytes.
+     *
+     * @param charset the charset from the content type, null to detect UTF-8/16/32 like JSON requires
+     */
+    public static JSONObject readObject(InputStream in, Charset charset, long maxBytes) throws IOException {
+        InputStream limited = new LimitedInputStream(in, maxBytes);
+        try (JsonParser parser = charset == null
+                ? jsonFactory.createParser(limited)
+                : jsonFactory.createParser(new InputStreamReader(limited, charset))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            JSONObject result = readObject(parser);
+            if (parser.nextToken() != null) {
+                throw new IOException("Unexpected content after the JSON object");
+            }
+            return result;
+        }
+    }
+
+    private static JSONObject readObject(JsonParser parser) throws IOException {
+        JSONObject object = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            object.put(name, readValue(parser));
+        }
+        return object;
+    }
+
+    private static JSONArray readArray(JsonParser parser) throws IOException {
+        JSONArray array = new JSONArray();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new IOException("Unexpected end of input");
+            }
+            array.put(readValue(parser));
+        }
+        return array;
+    }
+
+    private static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return readObject(parser);
+            case START_ARRAY:
+                return readArray(parser);
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                throw new IOException("Unexpected token " + parser.currentToken());
+        }
+    }
+
+    /**
+     * Writes the body as UTF-8 JSON, a String becomes {"response": "..."}.
+     */
+    public static void write(OutputStream out, Object body) throws IOException {
+        if (body != null && !isStreamable(body)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            gson.toJson(body, writer);
+            writer.flush();
+            return;
+        }
+
+        try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            if (body instanceof String) {
+                generator.writeStartObject();
+                generator.writeStringField("response", (String) body);
+                generator.writeEndObject();
+            } else {
+                writeValue(generator, body);
+            }
+        }
+    }
+
+    private static boolean isStreamable(Object body) {
+        return body instanceof JSONObject
+                || body instanceof JSONArray
+                || body instanceof Map
+                || body instanceof Collection
+                || body instanceof String
+                || body instanceof Number
+                || body instanceof Boolean;
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                generator.writeNull();
+            } else {
+                generator.writeNumber(d);
+            }
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Enum) {
+            generator.writeString(((Enum<?>) value).name());
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            generator.writeStartObject();
+            for (String key : object.keySet()) {
+                generator.writeFieldName(key);
+                writeValue(generator, object.opt(key));
+            }
+            generator.writeEndObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            generator.writeStartArray();
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(generator, array.opt(i));
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object o : (Collection<?>) value) {
+                writeValue(generator, o);
+            }
+            generator.writeEndArray();
+        } else if (value.getClass().isArray()) {
+            generator.writeStartArray();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                writeValue(generator, Array.get(value, i));
+            }
+            generator.writeEndArray();
+        } else {
+            writeElement(generator, gson.toJsonTree(value));
+        }
+    }
+
+    private static void writeElement(JsonGenerator generator, JsonElement element) throws IOException {
+        if (element.isJsonNull()) {
+            generator.writeNull();
+        } else if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                generator.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                generator.writeNumber(primitive.getAsNumber().toString());
+            } else {
+                generator.writeString(primitive.getAsString());
+            }
+        } else if (element.isJsonObject()) {
+            generator.writeStartObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeElement(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else {
+            generator.writeStartArray();
+            for (JsonElement e : element.getAsJsonArray()) {
+                writeElement(generator, e);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long read;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) {
+            read += n;
+            if (read > maxBytes) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+        }
+    }
+}
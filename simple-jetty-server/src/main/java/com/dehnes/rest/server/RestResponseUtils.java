@@ -1,18 +1,13 @@
 package com.dehnes.rest.server;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.eclipse.jetty.http.MimeTypes;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
 
 public class RestResponseUtils {
 
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-
     public static void jsonResponse(HttpServletResponse r, Object body) {
         setJsonResponse(r, 200, body);
     }
@@ -22,17 +17,9 @@ public class RestResponseUtils {
             r.reset();
             r.setStatus(statusCode);
             r.setContentType(MimeTypes.Type.APPLICATION_JSON.asString());
-            String bodyStr;
-            if (body instanceof String) {
-                bodyStr = new JSONObject().put("response", body.toString()).toString();
-            } else if (body instanceof JSONObject || body instanceof JSONArray) {
-                bodyStr = body.toString();
-            } else {
-                bodyStr = gson.toJson(body);
-            }
-            r.getOutputStream().write(bodyStr.getBytes("UTF-8"));
-            r.getOutputStream().flush();
-            r.getOutputStream().close();
+            ServletOutputStream outputStream = r.getOutputStream();
+            JsonCodec.write(outputStream, body);
+            outputStream.close();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,248 @@
+package com.dehnes.rest.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dehnes.rest.server.config.TriConsumer;
+
+/**
+ * Pushes events to the subscribed clients as Server-Sent Events.
+ * <p>
+ * A GET on the route this handler is mounted on subscribes, optionally only to some events with
+ * ?events=a,b. Each event is encoded once and queued per subscriber. Queued events with the same key are
+ * coalesced, so a slow client only gets the latest state per key. Each queue is bounded, if it overflows the
+ * oldest events are dropped. Every subscriber is drained by a task of its own, a stalled client therefore never
+ * delays the others. Heartbeat comments keep idle connections open and detect clients which are gone.
+ */
+public class SseBroadcaster implements TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> {
+    private static final Logger logger = LoggerFactory.getLogger(SseBroadcaster.class);
+
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final String HEARTBEAT_KEY = "";
+
+    private final int maxSubscribers;
+    private final int maxPending;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService writers = ExecutionMode.newThreadPerTaskExecutor("sseWriter");
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sseHeartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public SseBroadcaster() {
+        this(
+                Integer.parseInt(System.getProperty("SSE_MAX_SUBSCRIBERS", "100")),
+                Integer.parseInt(System.getProperty("SSE_MAX_PENDING", "100")),
+                Long.parseLong(System.getProperty("SSE_HEARTBEAT_SECONDS", "15")));
+    }
+
+    SseBroadcaster(int maxSubscribers, int maxPending, long heartbeatSeconds) {
+        this.maxSubscribers = maxSubscribers;
+        this.maxPending = maxPending;
+        heartbeat.scheduleWithFixedDelay(
+                () -> subscribers.forEach(s -> s.offer(HEARTBEAT_KEY, HEARTBEAT)),
+                heartbeatSeconds,
+                heartbeatSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void accept(HttpServletRequest request, HttpServletResponse response, List<String> fields) {
+        if (subscribers.size() >= maxSubscribers) {
+            RestResponseUtils.setJsonResponse(response, 503, "Too many subscribers");
+            return;
+        }
+
+        String events = request.getParameter("events");
+        Set<String> eventFilter = events == null ? null : new HashSet<>(Arrays.asList(events.split(",")));
+
+        request.setAttribute(ExecutionMode.ASYNC_HANDLED_ATTRIBUTE, Boolean.TRUE);
+        AsyncContext asyncContext = request.isAsyncStarted() ? request.getAsyncContext() : request.startAsync(request, response);
+        asyncContext.setTimeout(0);
+
+        response.setStatus(200);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no");
+
+        Subscriber subscriber;
+        try {
+            subscriber = new Subscriber(asyncContext, response.getOutputStream(), eventFilter);
+        } catch (IOException e) {
+            asyncContext.complete();
+            return;
+        }
+        asyncContext.addListener(new AsyncListenerAdapter() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                subscriber.close();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                subscriber.close();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                subscriber.close();
+            }
+        });
+        subscribers.add(subscriber);
+        logger.info("New subscriber from " + request.getRemoteAddr() + ", now " + subscribers.size());
+
+        // commits the response, so that the client sees the stream right away
+        subscriber.offer(HEARTBEAT_KEY, HEARTBEAT);
+    }
+
+    /**
+     * Queues the event for all subscribers of it.
+     *
+     * @param event the SSE event name
+     * @param key   events with the same key replace each other while queued, usually event name plus id
+     * @param data  single line data, usually JSON
+     */
+    public void publish(String event, String key, String data) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        published.increment();
+        byte[] frame = ("event: " + event + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.eventFilter == null || subscriber.eventFilter.contains(event)) {
+                subscriber.offer(key, frame);
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public void close() {
+        heartbeat.shutdownNow();
+        subscribers.forEach(Subscriber::close);
+        writers.shutdown();
+    }
+
+    private class Subscriber {
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final Set<String> eventFilter;
+
+        // guarded by this
+        private final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<>();
+        private boolean draining;
+        private boolean closed;
+
+        Subscriber(AsyncContext asyncContext, ServletOutputStream out, Set<String> eventFilter) {
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.eventFilter = eventFilter;
+        }
+
+        void offer(String key, byte[] frame) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (pending.containsKey(key)) {
+                    coalesced.increment();
+                } else if (pending.size() >= maxPending) {
+                    Iterator<String> oldest = pending.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                    dropped.increment();
+                }
+                pending.put(key, frame);
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            writers.execute(this::drain);
+        }
+
+        private void drain() {
+            List<byte[]> frames = new ArrayList<>();
+            while (true) {
+                synchronized (this) {
+                    if (pending.isEmpty() || closed) {
+                        draining = false;
+                        return;
+                    }
+                    frames.addAll(pending.values());
+                    pending.clear();
+                }
+                try {
+                    for (byte[] frame : frames) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                } catch (IOException | RuntimeException e) {
+                    logger.debug("Dropping subscriber - {}", e.getMessage());
+                    close();
+                    return;
+                }
+                frames.clear();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                pending.clear();
+            }
+            subscribers.remove(this);
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException ignored) {
+                // already completed
+            }
+            logger.info("Subscriber gone, now " + subscribers.size());
+        }
+    }
+}
@@ -1,55 +1,214 @@
 package com.dehnes.rest.server.config;
 
 import java.lang.reflect.Constructor;
-import java.util.HashSet;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.picocontainer.MutablePicoContainer;
-import org.picocontainer.PicoBuilder;
-import org.picocontainer.adapters.InstanceAdapter;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Constructor injection of singletons with a parallel start.
+ * <p>
+ * Each class is scanned once for its greediest public constructor and its @PostConstruct/@PreDestroy methods,
+ * the result is cached for the lifetime of the JVM. Components are created on demand together with their
+ * constructor dependencies, which gives the dependency graph. {@link #start()} runs the @PostConstruct methods
+ * along that graph: a component starts as soon as all of its dependencies have started, so independent
+ * components start in parallel and a slow one only delays what depends on it. {@link #stop()} runs the
+ * @PreDestroy methods in reverse.
+ */
 public class AppContext {
+    private static final Logger logger = LoggerFactory.getLogger(AppContext.class);
+
+    private static final ConcurrentHashMap<Class<?>, ComponentType> componentTypes = new ConcurrentHashMap<>();
 
-    private final MutablePicoContainer pico;
-    private Set<Class> classes;
+    private final Map<Class<?>, Object> instances = new HashMap<>();
+    // in creation order, i.e. every component after its dependencies
+    private final Map<Object, List<Object>> dependencies = new LinkedHashMap<>();
+    private boolean started;
 
-    public AppContext() {
-        pico = new PicoBuilder().withCaching().withJavaEE5Lifecycle().build();
-        this.classes = new HashSet<>();
+    public synchronized <T> void addInstance(Class<T> type, T instance) {
+        instances.put(type, instance);
     }
 
-    public <T> void addInstance(Class<T> type, T instance) {
-        pico.addAdapter(new InstanceAdapter<>(instance.getClass(), instance));
-        classes.add(type);
+    public synchronized <T> T getInstance(Class<T> type) {
+        return type.cast(resolve(type, new LinkedHashSet<>()));
     }
 
-    public <T> T getInstance(Class<T> type) {
-        addClass(type);
-        return pico.getComponent(type);
+    private Object resolve(Class<?> type, Set<Class<?>> creating) {
+        Object existing = instances.get(type);
+        if (existing != null) {
+            return existing;
+        }
+        for (Object instance : instances.values()) {
+            if (type.isInstance(instance)) {
+                return instance;
+            }
+        }
+
+        if (!creating.add(type)) {
+            throw new RuntimeException("Circular dependency: " + creating + " -> " + type.getName());
+        }
+        ComponentType componentType = componentTypes.computeIfAbsent(type, ComponentType::new);
+        Class<?>[] parameterTypes = componentType.constructor.getParameterTypes();
+        Object[] args = new Object[parameterTypes.length];
+        List<Object> componentDependencies = new ArrayList<>();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            args[i] = resolve(parameterTypes[i], creating);
+            if (dependencies.containsKey(args[i])) {
+                componentDependencies.add(args[i]);
+            }
+        }
+        creating.remove(type);
+
+        Object instance;
+        try {
+            instance = componentType.constructor.newInstance(args);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Could not create " + type.getName(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not create " + type.getName(), e);
+        }
+        instances.put(type, instance);
+        dependencies.put(instance, componentDependencies);
+
+        if (started) {
+            invoke(componentType.postConstruct, instance);
+        }
+        return instance;
     }
 
-    private void addConstructorDependencies(Class<?> clazz) {
-        for (Constructor constructor : clazz.getConstructors()) {
-            for (Class paramClazz : constructor.getParameterTypes()) {
-                addClass(paramClazz);
+    public void start() {
+        Map<Object, List<Object>> graph;
+        synchronized (this) {
+            if (started) {
+                return;
             }
+            started = true;
+            graph = new LinkedHashMap<>(dependencies);
         }
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "appStart-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long startedAt = System.nanoTime();
+        try {
+            // dependencies come first in the graph, so their futures always exist already
+            Map<Object, CompletableFuture<Void>> futures = new HashMap<>();
+            for (Map.Entry<Object, List<Object>> entry : graph.entrySet()) {
+                Object component = entry.getKey();
+                CompletableFuture<?>[] before = entry.getValue().stream().map(futures::get).toArray(CompletableFuture<?>[]::new);
+                futures.put(component, CompletableFuture.allOf(before).thenRunAsync(() -> startComponent(component), executor));
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Could not start", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        logger.info("Started " + graph.size() + " components in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + "ms");
     }
 
-    private void addClass(Class type) {
-        if (!classes.contains(type)) {
-            classes.add(type);
-            pico.addComponent(type);
-            addConstructorDependencies(type);
+    private void startComponent(Object component) {
+        Method postConstruct = componentTypes.get(component.getClass()).postConstruct;
+        if (postConstruct == null) {
+            return;
         }
+        long startedAt = System.nanoTime();
+        invoke(postConstruct, component);
+        logger.info("Started " + component.getClass().getSimpleName() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + "ms");
     }
 
+    public void stop() {
+        List<Object> components;
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            started = false;
+            components = new ArrayList<>(dependencies.keySet());
+        }
+
+        for (int i = components.size() - 1; i >= 0; i--) {
+            Object component = components.get(i);
+            Method preDestroy = componentTypes.get(component.getClass()).preDestroy;
+            if (preDestroy != null) {
+                try {
+                    invoke(preDestroy, component);
+                } catch (Exception e) {
+                    logger.error("Could not stop " + component.getClass().getSimpleName(), e);
+                }
+            }
+        }
+    }
 
-    public void start() {
-        pico.start();
+    private static void invoke(Method method, Object component) {
+        if (method == null) {
+            return;
+        }
+        try {
+            method.invoke(component);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Failed " + component.getClass().getSimpleName() + "." + method.getName(), e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    public void stop() {
-        pico.stop();
+    private static class ComponentType {
+        private final Constructor<?> constructor;
+        private final Method postConstruct;
+        private final Method preDestroy;
+
+        private ComponentType(Class<?> type) {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+                throw new RuntimeException("No instance of " + type.getName() + " added");
+            }
+            Constructor<?> greediest = null;
+            for (Constructor<?> constructor : type.getConstructors()) {
+                if (greediest == null || constructor.getParameterCount() > greediest.getParameterCount()) {
+                    greediest = constructor;
+                }
+            }
+            if (greediest == null) {
+                throw new RuntimeException("No public constructor in " + type.getName());
+            }
+            this.constructor = greediest;
+            this.postConstruct = findAnnotated(type, PostConstruct.class);
+            this.preDestroy = findAnnotated(type, PreDestroy.class);
+        }
+
+        private static Method findAnnotated(Class<?> type, Class<? extends java.lang.annotation.Annotation> annotation) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    if (method.isAnnotationPresent(annotation) && method.getParameterCount() == 0) {
+                        method.setAccessible(true);
+                        return method;
+                    }
+                }
+            }
+            return null;
+        }
     }
 }
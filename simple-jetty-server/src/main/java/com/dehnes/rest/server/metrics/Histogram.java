@@ -0,0 +1,117 @@
+package com.dehnes.rest.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets, like HdrHistogram with one significant digit.
+ * <p>
+ * Every power of two is split into 8 equally wide buckets, so any recorded value is known within 12.5%, from
+ * nanoseconds up to centuries, in a fixed array of counts. Recording is a few bit operations and an atomic
+ * increment and never allocates. Quantiles are computed over everything recorded since the start.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below SUB_BUCKETS have a bucket each, every further power of two SUB_BUCKETS
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        sum.add(nanos);
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the value at the quantile in nanoseconds, as the middle of its bucket, or 0 if nothing was recorded
+     */
+    public long quantile(double q) {
+        return quantiles(new double[]{q})[0];
+    }
+
+    /**
+     * Computes several quantiles from one snapshot of the counts.
+     *
+     * @param qs in ascending order
+     */
+    public long[] quantiles(double[] qs) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        long[] result = new long[qs.length];
+        if (total == 0) {
+            return result;
+        }
+        int bucket = 0;
+        long seen = snapshot[0];
+        for (int i = 0; i < qs.length; i++) {
+            long rank = Math.max(1, (long) Math.ceil(qs[i] * total));
+            while (seen < rank && bucket < BUCKETS - 1) {
+                seen += snapshot[++bucket];
+            }
+            result[i] = (lowerBound(bucket) + upperBound(bucket)) >>> 1;
+        }
+        return result;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Exclusive, saturates at Long.MAX_VALUE for the last bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long upper = lowerBound(bucket) + (1L << (exponent - SUB_BUCKET_BITS));
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
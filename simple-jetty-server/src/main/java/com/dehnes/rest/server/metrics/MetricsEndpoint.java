@@ -0,0 +1,44 @@
+package com.dehnes.rest.server.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.dehnes.rest.server.config.TriConsumer;
+
+/**
+ * Serves the metrics of the registry for Prometheus to scrape.
+ */
+public class MetricsEndpoint implements TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry metricsRegistry;
+
+    public MetricsEndpoint(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @Override
+    public void accept(HttpServletRequest request, HttpServletResponse response, List<String> fields) {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+        try {
+            metricsRegistry.write(sb);
+            byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+            response.setStatus(200);
+            response.setContentType(CONTENT_TYPE);
+            response.setHeader("Cache-Control", "no-store");
+            response.setContentLength(body.length);
+            try (OutputStream out = response.getOutputStream()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.dehnes.rest.server.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the counters, gauges and latency histograms of the process, written in the Prometheus text
+ * format by {@link #write(Appendable)}.
+ * <p>
+ * Metrics are looked up once, by name and label pairs, and then kept by their owner, so recording never
+ * touches the registry. Registering the same name and labels again returns the existing metric. Counts
+ * which already exist elsewhere are exposed with a supplier instead of being counted twice, registering a
+ * supplier again replaces the previous one. Histograms are exposed as summaries in seconds.
+ */
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return family(name, help, "counter").series(labels, Counter::new, Counter.class);
+    }
+
+    /**
+     * Exposes a count kept elsewhere, e.g. in a {@link java.util.concurrent.atomic.LongAdder}.
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").replace(labels, value);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").replace(labels, value);
+    }
+
+    /**
+     * A latency histogram, recording nanoseconds. The name should end with _seconds.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return family(name, help, "summary").series(labels, Histogram::new, Histogram.class);
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format 0.0.4, ordered by name.
+     */
+    public void write(Appendable out) throws IOException {
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ');
+            escape(family.help, false, out);
+            out.append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                writeSeries(family.name, series.getKey(), series.getValue(), out);
+            }
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Invalid metric name " + name);
+        }
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    private static void writeSeries(String name, String labels, Object metric, Appendable out) throws IOException {
+        if (metric instanceof Counter) {
+            sample(name, labels, null, ((Counter) metric).get(), out);
+        } else if (metric instanceof LongSupplier) {
+            sample(name, labels, null, ((LongSupplier) metric).getAsLong(), out);
+        } else if (metric instanceof DoubleSupplier) {
+            sample(name, labels, null, format(((DoubleSupplier) metric).getAsDouble()), out);
+        } else {
+            Histogram histogram = (Histogram) metric;
+            long[] values = histogram.quantiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sample(name, labels, "quantile=\"" + QUANTILES[i] + "\"", format(Histogram.toSeconds(values[i])), out);
+            }
+            sample(name + "_sum", labels, null, format(Histogram.toSeconds(histogram.getSumNanos())), out);
+            sample(name + "_count", labels, null, histogram.getCount(), out);
+        }
+    }
+
+    private static void sample(String name, String labels, String extraLabel, Object value, Appendable out) throws IOException {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(String.valueOf(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * @return the label pairs as name="value",...
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of name and value");
+        }
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(labels[i]).append("=\"");
+                escape(labels[i + 1], true, sb);
+                sb.append('"');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    private static void escape(String s, boolean quotes, Appendable out) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (quotes && c == '"') {
+                out.append("\\\"");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        // by rendered labels, sorted for a stable output
+        private final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        private <T> T series(String[] labels, Supplier<T> factory, Class<T> metricType) {
+            Object metric = series.computeIfAbsent(labels(labels), l -> factory.get());
+            if (!metricType.isInstance(metric)) {
+                throw new IllegalArgumentException("Metric " + name + "{" + labels(labels) + "} is already registered");
+            }
+            return metricType.cast(metric);
+        }
+
+        private void replace(String[] labels, Object supplier) {
+            series.put(labels(labels), supplier);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.dehnes.rest.server.route;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -14,16 +15,33 @@ import com.dehnes.rest.server.config.TriConsumer;
 
 public class Route {
 
+    protected final List<String> patternParts;
     protected final Pattern pattern;
     protected final HttpMethod method;
     protected final TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> h;
 
     public Route(String pattern, HttpMethod method, TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> h) {
-        this.pattern = Pattern.compile(pattern);
+        this(Collections.singletonList(pattern), method, h);
+    }
+
+    /**
+     * @param patternParts the patterns of the nested when(...) calls, which together make up the pattern
+     */
+    public Route(List<String> patternParts, HttpMethod method, TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> h) {
+        this.patternParts = Collections.unmodifiableList(patternParts);
+        this.pattern = Pattern.compile(String.join("", patternParts));
         this.method = method;
         this.h = h;
     }
 
+    public List<String> getPatternParts() {
+        return patternParts;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
     public boolean test(HttpMethod httpMethod, String s) {
         return (this.method == null || this.method == httpMethod) && pattern.matcher(s).matches();
     }
@@ -39,4 +57,11 @@ public class Route {
 
         h.accept(req, resp, fields);
     }
+
+    /**
+     * Runs the handler with the fields already captured while matching.
+     */
+    public void execute(HttpServletRequest req, HttpServletResponse resp, List<String> fields) {
+        h.accept(req, resp, fields);
+    }
 }
@@ -1,9 +1,8 @@
 package com.dehnes.rest.server.route;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -17,7 +16,7 @@ public class RouteBuilder {
     private final RouteBuilderState builderState;
 
     public RouteBuilder() {
-        this.builderState = new RouteBuilderState(new LinkedList<>(), new LinkedList<>());
+        this.builderState = new RouteBuilderState(null, null);
     }
 
     protected RouteBuilder(RouteBuilderState routeBuilderState) {
@@ -56,36 +55,59 @@ public class RouteBuilder {
         return builderState.getRoutes();
     }
 
+    /**
+     * Immutable builder state. Both the pattern stack and the routes are persistent cons lists, so every
+     * step shares the state it was derived from instead of copying it.
+     */
     public static class RouteBuilderState {
 
-        private final LinkedList<String> patternStack;
-        private final LinkedList<Route> routes;
+        private final Cons<String> patternStack;
+        private final Cons<Route> routes;
 
-        protected RouteBuilderState(LinkedList<String> patternStack, LinkedList<Route> routes) {
+        protected RouteBuilderState(Cons<String> patternStack, Cons<Route> routes) {
             this.patternStack = patternStack;
             this.routes = routes;
         }
 
         protected RouteBuilderState startSubRoute(String pattern) {
-            LinkedList<String> stack = new LinkedList<>(patternStack);
-            stack.add(pattern);
-            return new RouteBuilderState(stack, routes);
+            return new RouteBuilderState(new Cons<>(pattern, patternStack), routes);
         }
 
         protected RouteBuilderState endSubRoute() {
-            LinkedList<String> stack = new LinkedList<>(patternStack);
-            stack.removeLast();
-            return new RouteBuilderState(stack, routes);
+            if (patternStack == null) {
+                throw new IllegalStateException("done() without matching when()");
+            }
+            return new RouteBuilderState(patternStack.tail, routes);
         }
 
         protected RouteBuilderState append(HttpMethod method, TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> h) {
-            LinkedList<Route> routes = (LinkedList<Route>) this.routes.clone();
-            routes.add(new Route(patternStack.stream().collect(Collectors.joining()), method, h));
-            return new RouteBuilderState(patternStack, routes);
+            return new RouteBuilderState(patternStack, new Cons<>(new Route(Cons.toList(patternStack), method, h), routes));
         }
 
         protected List<Route> getRoutes() {
-            return Collections.unmodifiableList(routes);
+            return Collections.unmodifiableList(Cons.toList(routes));
+        }
+    }
+
+    private static class Cons<T> {
+        private final T head;
+        private final Cons<T> tail;
+
+        private Cons(T head, Cons<T> tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        /**
+         * @return the elements in the order they were added
+         */
+        private static <T> List<T> toList(Cons<T> cons) {
+            ArrayList<T> result = new ArrayList<>();
+            for (Cons<T> c = cons; c != null; c = c.tail) {
+                result.add(c.head);
+            }
+            Collections.reverse(result);
+            return result;
         }
     }
 }
@@ -0,0 +1,320 @@
+package com.dehnes.rest.server.route;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpMethod;
+
+import com.dehnes.rest.server.ExecutionMode;
+
+/**
+ * Routes compiled into a trie of path segments.
+ * <p>
+ * The leading when(...) patterns of a route which are plain literals, like "^/api" and "/garage_door", become
+ * trie nodes, one per path segment. Only what follows the literals is kept as regex and matched against the
+ * rest of the path. Each node has a table from HTTP method to its routes, so a request only looks at the routes
+ * along its path which accept its method. Like before, all matching routes run in declaration order until one
+ * commits the response or takes it over asynchronously.
+ * <p>
+ * Matching re-uses per-thread matchers and buffers. Only the captured fields are allocated.
+ */
+public class RouteTrie {
+
+    // routes without method run for every method, unknown methods use the extra slot
+    private static final int METHOD_SLOTS = HttpMethod.values().length + 1;
+    private static final String REGEX_CHARS = "\\[](){}.*+?^$|";
+
+    private final Node root = new Node("");
+    private final int routeCount;
+    private final ThreadLocal<Scratch> scratch;
+
+    public RouteTrie(List<Route> routes) {
+        this.routeCount = routes.size();
+        for (int i = 0; i < routes.size(); i++) {
+            add(i, routes.get(i));
+        }
+        root.freeze();
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(routeCount));
+    }
+
+    /**
+     * Runs the matching routes in declaration order until the response is committed.
+     */
+    public void dispatch(HttpMethod httpMethod, String target, HttpServletRequest req, HttpServletResponse resp) {
+        Scratch s = scratch.get();
+        int methodSlot = httpMethod == null ? METHOD_SLOTS - 1 : httpMethod.ordinal();
+        int length = target.length();
+
+        // collect the candidates along the path
+        int count = 0;
+        Node node = root;
+        int offset = 0;
+        while (true) {
+            for (Entry entry : node.byMethod[methodSlot]) {
+                s.candidates[count] = entry;
+                s.offsets[count] = offset;
+                count++;
+            }
+            if (offset >= length || target.charAt(offset) != '/') {
+                break;
+            }
+            int end = target.indexOf('/', offset + 1);
+            if (end < 0) {
+                end = length;
+            }
+            node = node.child(target, offset + 1, end);
+            if (node == null) {
+                break;
+            }
+            offset = end;
+        }
+        s.sortByIndex(count);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                if (resp.isCommitted() || req.getAttribute(ExecutionMode.ASYNC_HANDLED_ATTRIBUTE) != null) {
+                    break;
+                }
+                Entry entry = s.candidates[i];
+                int from = s.offsets[i];
+
+                if (entry.tail == null) {
+                    if (from == length) {
+                        entry.route.execute(req, resp, Collections.emptyList());
+                    }
+                    continue;
+                }
+
+                Matcher matcher = s.matcher(entry);
+                matcher.reset(target);
+                matcher.region(from, length);
+                if (matcher.matches()) {
+                    entry.route.execute(req, resp, fields(matcher));
+                }
+            }
+        } finally {
+            s.clear(count);
+        }
+    }
+
+    private static List<String> fields(Matcher matcher) {
+        int groupCount = matcher.groupCount();
+        if (groupCount == 0) {
+            return Collections.emptyList();
+        }
+        List<String> fields = new ArrayList<>(groupCount);
+        for (int i = 1; i <= groupCount; i++) {
+            fields.add(matcher.group(i));
+        }
+        return fields;
+    }
+
+    private void add(int index, Route route) {
+        List<String> parts = route.getPatternParts();
+
+        // collect the leading literal parts
+        StringBuilder literal = new StringBuilder();
+        int firstRegexPart = 0;
+        for (; firstRegexPart < parts.size(); firstRegexPart++) {
+            String part = parts.get(firstRegexPart);
+            if (firstRegexPart == 0 && part.startsWith("^")) {
+                part = part.substring(1);
+            }
+            if (!isLiteral(part)) {
+                break;
+            }
+            literal.append(part);
+        }
+        StringBuilder tail = new StringBuilder();
+        for (int i = firstRegexPart; i < parts.size(); i++) {
+            String part = parts.get(i);
+            tail.append(i == 0 && part.startsWith("^") ? part.substring(1) : part);
+        }
+
+        // the trie only holds complete segments, a partial last segment goes back into the regex
+        String path = literal.toString();
+        if (!path.startsWith("/")) {
+            path = "";
+            tail.insert(0, Pattern.quote(literal.toString()));
+        } else if (tail.length() > 0 && tail.charAt(0) != '/') {
+            int lastSlash = path.lastIndexOf('/');
+            tail.insert(0, Pattern.quote(path.substring(lastSlash)));
+            path = path.substring(0, lastSlash);
+        }
+
+        Node node = root;
+        int offset = 0;
+        while (offset < path.length()) {
+            int end = path.indexOf('/', offset + 1);
+            if (end < 0) {
+                end = path.length();
+            }
+            node = node.getOrAddChild(path.substring(offset + 1, end));
+            offset = end;
+        }
+
+        node.entries.add(new Entry(
+                index,
+                route,
+                tail.length() == 0 ? null : Pattern.compile(tail.toString())));
+    }
+
+    private static boolean isLiteral(String part) {
+        for (int i = 0; i < part.length(); i++) {
+            if (REGEX_CHARS.indexOf(part.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private final int index;
+        private final Route route;
+        private final Pattern tail;
+
+        private Entry(int index, Route route, Pattern tail) {
+            this.index = index;
+            this.route = route;
+            this.tail = tail;
+        }
+
+        private boolean accepts(int methodSlot) {
+            return route.getMethod() == null || route.getMethod().ordinal() == methodSlot;
+        }
+    }
+
+    private static class Node {
+        private final String segment;
+        private final int hash;
+        private final List<Entry> entries = new ArrayList<>();
+        private Entry[][] byMethod;
+
+        // open addressing by segment hash
+        private Node[] children = new Node[4];
+        private int childCount;
+
+        private Node(String segment) {
+            this.segment = segment;
+            this.hash = segment.hashCode();
+        }
+
+        private Node child(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            int length = to - from;
+            int mask = children.length - 1;
+            for (int i = spread(h) & mask; children[i] != null; i = (i + 1) & mask) {
+                Node c = children[i];
+                if (c.hash == h && c.segment.length() == length && s.regionMatches(from, c.segment, 0, length)) {
+                    return c;
+                }
+            }
+            return null;
+        }
+
+        private Node getOrAddChild(String segment) {
+            Node existing = child(segment, 0, segment.length());
+            if (existing != null) {
+                return existing;
+            }
+            if ((childCount + 1) * 2 > children.length) {
+                Node[] old = children;
+                children = new Node[old.length * 2];
+                for (Node c : old) {
+                    if (c != null) {
+                        insert(c);
+                    }
+                }
+            }
+            Node node = new Node(segment);
+            insert(node);
+            childCount++;
+            return node;
+        }
+
+        private void insert(Node node) {
+            int mask = children.length - 1;
+            int i = spread(node.hash) & mask;
+            while (children[i] != null) {
+                i = (i + 1) & mask;
+            }
+            children[i] = node;
+        }
+
+        private void freeze() {
+            byMethod = new Entry[METHOD_SLOTS][];
+            for (int m = 0; m < METHOD_SLOTS; m++) {
+                List<Entry> accepted = new ArrayList<>();
+                for (Entry entry : entries) {
+                    if (entry.accepts(m)) {
+                        accepted.add(entry);
+                    }
+                }
+                byMethod[m] = accepted.toArray(new Entry[0]);
+            }
+            for (Node c : children) {
+                if (c != null) {
+                    c.freeze();
+                }
+            }
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static class Scratch {
+        private final Entry[] candidates;
+        private final int[] offsets;
+        private final Matcher[] matchers;
+
+        private Scratch(int routeCount) {
+            candidates = new Entry[routeCount];
+            offsets = new int[routeCount];
+            matchers = new Matcher[routeCount];
+        }
+
+        private Matcher matcher(Entry entry) {
+            Matcher matcher = matchers[entry.index];
+            if (matcher == null) {
+                matcher = entry.tail.matcher("");
+                matchers[entry.index] = matcher;
+            }
+            return matcher;
+        }
+
+        /**
+         * Insertion sort, there are only a few candidates and they are mostly in order already.
+         */
+        private void sortByIndex(int count) {
+            for (int i = 1; i < count; i++) {
+                Entry entry = candidates[i];
+                int offset = offsets[i];
+                int j = i - 1;
+                while (j >= 0 && candidates[j].index > entry.index) {
+                    candidates[j + 1] = candidates[j];
+                    offsets[j + 1] = offsets[j];
+                    j--;
+                }
+                candidates[j + 1] = entry;
+                offsets[j + 1] = offset;
+            }
+        }
+
+        private void clear(int count) {
+            for (int i = 0; i < count; i++) {
+                candidates[i] = null;
+            }
+        }
+    }
+}
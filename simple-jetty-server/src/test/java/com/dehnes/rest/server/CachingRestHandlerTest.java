@@ -0,0 +1,93 @@
+package com.dehnes.rest.server;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingRestHandlerTest {
+
+    @Test
+    public void testServesFromCacheUntilVersionChanges() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong version = new AtomicLong();
+        CachingRestHandler handler = new CachingRestHandler(new AbstractRestHandler() {
+            @Override
+            public void handle(String requestURI, List<String> fields, Map<String, String[]> params, JSONObject body, BiConsumer<Integer, Object> onDone) {
+                onDone.accept(200, new JSONObject().put("calls", calls.incrementAndGet()));
+            }
+        }, 60_000, version::get);
+
+        Server server = new EmbeddedJetty().start(0, TestRoutes.get("^/api/status", handler), ExecutionMode.POOL, 16);
+        try {
+            URI uri = URI.create("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/api/status");
+            HttpClient httpClient = HttpClient.newHttpClient();
+
+            HttpResponse<String> first = httpClient.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, first.statusCode());
+            assertEquals(1, new JSONObject(first.body()).getInt("calls"));
+            String etag = first.headers().firstValue("ETag").orElseThrow();
+
+            HttpResponse<String> second = httpClient.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(first.body(), second.body());
+            assertEquals(etag, second.headers().firstValue("ETag").orElseThrow());
+
+            HttpResponse<String> notModified = httpClient.send(
+                    HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(304, notModified.statusCode());
+            assertEquals("", notModified.body());
+            assertEquals(1, calls.get());
+
+            version.incrementAndGet();
+            HttpResponse<String> changed = httpClient.send(
+                    HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, changed.statusCode());
+            assertEquals(2, new JSONObject(changed.body()).getInt("calls"));
+            assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testPassesTheRequestAndKeepsTheRecentlyUsed() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingRestHandler handler = new CachingRestHandler(new AbstractRestHandler() {
+            @Override
+            public void handle(String requestURI, List<String> fields, Map<String, String[]> params, JSONObject body, BiConsumer<Integer, Object> onDone) {
+                calls.incrementAndGet();
+                onDone.accept(200, new JSONObject().put("query", getRequest().getQueryString()));
+            }
+        }, 60_000, () -> 0, 2);
+
+        Server server = new EmbeddedJetty().start(0, TestRoutes.get("^/api/status", handler), ExecutionMode.POOL, 16);
+        try {
+            String base = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/api/status?q=";
+            HttpClient httpClient = HttpClient.newHttpClient();
+            for (String q : new String[]{"a", "b", "a", "c", "a"}) {
+                HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(base + q)).build(), HttpResponse.BodyHandlers.ofString());
+                assertEquals("q=" + q, new JSONObject(response.body()).getString("query"));
+            }
+            // a stayed cached, c evicted b
+            assertEquals(3, calls.get());
+            httpClient.send(HttpRequest.newBuilder(URI.create(base + "b")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(4, calls.get());
+        } finally {
+            server.stop();
+        }
+    }
+}
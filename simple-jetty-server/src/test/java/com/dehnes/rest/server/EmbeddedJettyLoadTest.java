@@ -0,0 +1,111 @@
+package com.dehnes.rest.server;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Fires more concurrent requests at handlers blocking like an RF round trip than the Jetty pool has workers, and
+ * logs the throughput of each execution mode.
+ */
+class EmbeddedJettyLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedJettyLoadTest.class);
+
+    private static final int MAX_THREADS = 32;
+    private static final int REQUESTS = 120;
+    private static final long BLOCK_MS = 250;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private volatile CountDownLatch allRunning = new CountDownLatch(0);
+
+    @Test
+    public void testBlockedHandlersDoNotExhaustThePool() throws Exception {
+        // the pool can only run a few of the blocked handlers at a time, the other modes all of them at once
+        int pool = run(ExecutionMode.POOL, BLOCK_MS);
+        assertTrue(pool > 1, "pool " + pool);
+        assertTrue(pool < REQUESTS, "pool " + pool);
+
+        assertEquals(REQUESTS, run(ExecutionMode.VIRTUAL, TimeUnit.SECONDS.toMillis(30)));
+        assertEquals(REQUESTS, run(ExecutionMode.ASYNC, TimeUnit.SECONDS.toMillis(30)));
+    }
+
+    /**
+     * @param blockMs how long a handler waits for all requests to be handled at once
+     * @return the most handlers which were running at the same time
+     */
+    private int run(ExecutionMode mode, long blockMs) throws Exception {
+        Server server = new EmbeddedJetty().start(0, TestRoutes.get("^/api/slow", slowHandler(blockMs)), mode, MAX_THREADS);
+        ExecutorService clients = Executors.newFixedThreadPool(REQUESTS);
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clients)
+                    .build();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/slow")).build();
+
+            // warm up
+            assertEquals(200, httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            running.set(0);
+            peak.set(0);
+            allRunning = new CountDownLatch(REQUESTS);
+            long startNanos = System.nanoTime();
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<HttpResponse<String>> response : responses) {
+                HttpResponse<String> r = response.get(60, TimeUnit.SECONDS);
+                assertEquals(200, r.statusCode(), mode + " " + r.body());
+                assertEquals("slept", new JSONObject(r.body()).getString("response"));
+            }
+            long tookMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            logger.info(String.format("%s: %d requests blocking up to %dms with %d Jetty threads took %dms, %.0f req/s, at most %d at once",
+                    mode, REQUESTS, blockMs, MAX_THREADS, tookMs, REQUESTS * 1000D / tookMs, peak.get()));
+            return peak.get();
+        } finally {
+            server.stop();
+            clients.shutdownNow();
+        }
+    }
+
+    private AbstractRestHandler slowHandler(long blockMs) {
+        return new AbstractRestHandler() {
+            @Override
+            public void handle(String requestURI, List<String> fields, Map<String, String[]> params, JSONObject body, BiConsumer<Integer, Object> onDone) {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                allRunning.countDown();
+                try {
+                    allRunning.await(blockMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+                onDone.accept(200, "slept");
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package com.dehnes.rest.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonCodecTest {
+
+    @Test
+    public void testReadsObject() throws Exception {
+        String json = "{\"action\":\"manual\",\"value\":2150,\"big\":12345678901,\"f\":1.5,\"on\":true,\"n\":null,"
+                + "\"list\":[1,\"a\",{\"x\":[]}],\"text\":\"\\u00e6\\\"\"}";
+
+        JSONObject body = JsonCodec.readObject(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), null, 1024);
+
+        assertEquals("manual", body.getString("action"));
+        assertEquals(2150, body.getInt("value"));
+        assertEquals(12345678901L, body.getLong("big"));
+        assertEquals(1.5, body.getDouble("f"));
+        assertTrue(body.getBoolean("on"));
+        assertTrue(body.isNull("n"));
+        assertEquals("a", body.getJSONArray("list").getString(1));
+        assertEquals(0, body.getJSONArray("list").getJSONObject(2).getJSONArray("x").length());
+        assertEquals("\u00e6\"", body.getString("text"));
+    }
+
+    @Test
+    public void testRejectsInvalidAndTooLargeBodies() {
+        assertThrows(Exception.class, () -> read("[1,2]", 1024));
+        assertThrows(Exception.class, () -> read("{\"a\":1} {}", 1024));
+        assertThrows(Exception.class, () -> read("{\"a\":", 1024));
+
+        StringBuilder large = new StringBuilder("{\"a\":\"");
+        for (int i = 0; i < 10000; i++) {
+            large.append('x');
+        }
+        large.append("\"}");
+        assertThrows(JsonCodec.BodyTooLargeException.class, () -> read(large.toString(), 1024));
+    }
+
+    @Test
+    public void testWritesCompactly() throws Exception {
+        JSONObject object = new JSONObject()
+                .put("mode", Thread.State.NEW)
+                .put("list", new JSONArray().put(1).put(2.5).put(JSONObject.NULL))
+                .put("text", "a\"b");
+
+        JSONObject parsed = new JSONObject(write(object));
+        assertEquals("NEW", parsed.getString("mode"));
+        assertEquals(2.5, parsed.getJSONArray("list").getDouble(1));
+        assertTrue(parsed.getJSONArray("list").isNull(2));
+        assertEquals("a\"b", parsed.getString("text"));
+        assertFalse(write(object).contains("\n"));
+
+        assertEquals("{\"response\":\"Done\"}", write("Done"));
+        assertEquals("{\"a\":[1,true]}", write(Map.of("a", List.of(1, true))));
+        assertEquals("{\"x\":1}", write(new Pojo()));
+        assertEquals("{\"a\":[{\"x\":1}],\"b\":{\"x\":1}}", write(new TreeMap<>(Map.of("a", List.of(new Pojo()), "b", new Pojo()))));
+    }
+
+    private static JSONObject read(String json, long maxBytes) throws Exception {
+        return JsonCodec.readObject(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), null, maxBytes);
+    }
+
+    private static String write(Object body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonCodec.write(out, body);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static class Pojo {
+        private final int x = 1;
+    }
+}
@@ -0,0 +1,51 @@
+package com.dehnes.rest.server;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseBroadcasterTest {
+
+    @Test
+    public void testStreamsSubscribedEvents() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            SseBroadcaster broadcaster = new SseBroadcaster(10, 10, 60);
+            Server server = new EmbeddedJetty().start(0, TestRoutes.get("^/api/events", broadcaster), mode, 16);
+            try {
+                int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+                HttpResponse<InputStream> response = HttpClient.newHttpClient().send(
+                        HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/events?events=sensor")).build(),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                assertEquals(200, response.statusCode(), mode.name());
+                assertEquals("text/event-stream;charset=utf-8", response.headers().firstValue("Content-Type").orElse("").toLowerCase().replace(" ", ""));
+                assertEquals(1, broadcaster.getSubscriberCount());
+
+                broadcaster.publish("packet", "packet/1", "{\"addr\":1}");
+                broadcaster.publish("sensor", "room/temp", "{\"value\":21.5}");
+
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                    assertEquals(": ping", reader.readLine());
+                    assertEquals("", reader.readLine());
+                    assertEquals("event: sensor", reader.readLine());
+                    assertEquals("data: {\"value\":21.5}", reader.readLine());
+                    assertEquals("", reader.readLine());
+                }
+            } finally {
+                broadcaster.close();
+                server.stop();
+            }
+            assertEquals(0, broadcaster.getSubscriberCount());
+        }
+    }
+}
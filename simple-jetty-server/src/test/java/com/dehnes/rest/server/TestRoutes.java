@@ -0,0 +1,47 @@
+package com.dehnes.rest.server;
+
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.dehnes.rest.server.config.TriConsumer;
+import com.dehnes.rest.server.route.Route;
+import com.dehnes.rest.server.route.RouteBuilder;
+import com.dehnes.rest.server.route.RoutesFactory;
+import com.dehnes.rest.server.utils.Tuple;
+
+/**
+ * Routes for tests running an {@link EmbeddedJetty}, without any pre- or post-routing.
+ */
+class TestRoutes implements RoutesFactory {
+
+    private final List<Route> routes;
+
+    private TestRoutes(List<Route> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * @return a single GET route
+     */
+    static RoutesFactory get(String pattern, TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> handler) {
+        return new TestRoutes(new RouteBuilder()
+                .when(pattern).get(handler).done()
+                .build());
+    }
+
+    @Override
+    public List<Route> getRoutes(String acceptHeader) {
+        return routes;
+    }
+
+    @Override
+    public Tuple<HttpServletRequest, HttpServletResponse> preRouting(HttpServletRequest request, HttpServletResponse response) {
+        return new Tuple<>(request, response);
+    }
+
+    @Override
+    public void postRouting(HttpServletRequest req, HttpServletResponse resp, Exception onError) {
+    }
+}
@@ -0,0 +1,111 @@
+package com.dehnes.rest.server.config;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppContextTest {
+
+    static class Log {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        // only passed when A and B start at the same time
+        final CyclicBarrier bothStarting = new CyclicBarrier(2);
+    }
+
+    public static class A {
+        private final Log log;
+
+        public A(Log log) {
+            this.log = log;
+        }
+
+        @PostConstruct
+        public void start() throws Exception {
+            log.bothStarting.await(10, TimeUnit.SECONDS);
+            log.events.add("start A");
+        }
+
+        @PreDestroy
+        public void stop() {
+            log.events.add("stop A");
+        }
+    }
+
+    public static class B {
+        private final Log log;
+
+        public B(Log log) {
+            this.log = log;
+        }
+
+        @PostConstruct
+        public void start() throws Exception {
+            log.bothStarting.await(10, TimeUnit.SECONDS);
+            log.events.add("start B");
+        }
+    }
+
+    public static class C {
+        private final Log log;
+        private final A a;
+
+        public C(Log log, A a, B b) {
+            this.log = log;
+            this.a = a;
+        }
+
+        @PostConstruct
+        public void start() {
+            log.events.add("start C");
+        }
+
+        @PreDestroy
+        public void stop() {
+            log.events.add("stop C");
+        }
+    }
+
+    @Test
+    public void testStartsIndependentComponentsInParallel() {
+        Log log = new Log();
+        AppContext appContext = new AppContext();
+        appContext.addInstance(Log.class, log);
+
+        C c = appContext.getInstance(C.class);
+        assertSame(c.a, appContext.getInstance(A.class));
+        assertTrue(log.events.isEmpty());
+
+        appContext.start();
+
+        assertEquals(3, log.events.size());
+        assertEquals("start C", log.events.get(2));
+
+        log.events.clear();
+        appContext.stop();
+        assertEquals(List.of("stop C", "stop A"), log.events);
+    }
+
+    public static class Self {
+        public Self(Other other) {
+        }
+    }
+
+    public static class Other {
+        public Other(Self self) {
+        }
+    }
+
+    @Test
+    public void testRejectsCircularDependencies() {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> new AppContext().getInstance(Self.class));
+        assertTrue(e.getMessage().startsWith("Circular dependency"), e.getMessage());
+    }
+}
@@ -0,0 +1,93 @@
+package com.dehnes.rest.server.metrics;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    public void testWritesPrometheusTextFormat() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter errors = registry.counter("rf_frames_skipped_total", "Bytes skipped", "reason", "error_code");
+        registry.counter("rf_frames_skipped_total", "Bytes skipped", "reason", "invalid \"length\"").add(2);
+        AtomicLong written = new AtomicLong(42);
+        registry.counter("points_written_total", "Points written", written::get);
+        registry.gauge("queue_depth", "Queued\nitems", () -> 1.5);
+
+        errors.increment();
+        assertSame(errors, registry.counter("rf_frames_skipped_total", "Bytes skipped", "reason", "error_code"));
+        errors.increment();
+
+        StringBuilder sb = new StringBuilder();
+        registry.write(sb);
+        assertEquals(""
+                        + "# HELP points_written_total Points written\n"
+                        + "# TYPE points_written_total counter\n"
+                        + "points_written_total 42\n"
+                        + "# HELP queue_depth Queued\\nitems\n"
+                        + "# TYPE queue_depth gauge\n"
+                        + "queue_depth 1.5\n"
+                        + "# HELP rf_frames_skipped_total Bytes skipped\n"
+                        + "# TYPE rf_frames_skipped_total counter\n"
+                        + "rf_frames_skipped_total{reason=\"error_code\"} 2\n"
+                        + "rf_frames_skipped_total{reason=\"invalid \\\"length\\\"\"} 2\n",
+                sb.toString());
+    }
+
+    @Test
+    public void testRejectsConflictingRegistrations() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Requests");
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("requests_total", "Requests", () -> 1));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("requests-total", "Requests"));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("requests_total", "Requests", "code"));
+    }
+
+    @Test
+    public void testHistogramQuantiles() throws Exception {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.quantile(0.5));
+
+        // 1 to 100 ms
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050 * 1_000_000L, histogram.getSumNanos());
+        assertWithin(50_000_000L, histogram.quantile(0.5));
+        assertWithin(90_000_000L, histogram.quantile(0.9));
+        assertWithin(99_000_000L, histogram.quantile(0.99));
+        assertWithin(100_000_000L, histogram.quantile(1));
+
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.histogram("latency_seconds", "Latency", "op", "read").record(2_000_000L);
+        StringBuilder sb = new StringBuilder();
+        registry.write(sb);
+        assertTrue(sb.toString().contains("# TYPE latency_seconds summary\n"), sb.toString());
+        assertTrue(sb.toString().contains("latency_seconds{op=\"read\",quantile=\"0.99\"} 0.00"), sb.toString());
+        assertTrue(sb.toString().contains("latency_seconds_sum{op=\"read\"} 0.002\n"), sb.toString());
+        assertTrue(sb.toString().contains("latency_seconds_count{op=\"read\"} 1\n"), sb.toString());
+    }
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(Histogram.lowerBound(bucket) <= value, "" + value);
+            assertTrue(value < Histogram.upperBound(bucket) || Histogram.upperBound(bucket) == Long.MAX_VALUE, "" + value);
+        }
+        assertEquals(Histogram.upperBound(7), Histogram.lowerBound(8));
+        assertEquals(Histogram.upperBound(100), Histogram.lowerBound(101));
+        Histogram.bucketOf(Long.MAX_VALUE);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 8, "expected about " + expected + " but was " + actual);
+    }
+}
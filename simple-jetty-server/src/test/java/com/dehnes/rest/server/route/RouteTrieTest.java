@@ -0,0 +1,115 @@
+package com.dehnes.rest.server.route;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.junit.jupiter.api.Test;
+
+import com.dehnes.rest.server.config.TriConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteTrieTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private boolean committed;
+
+    @Test
+    public void testDispatchesLikeTheRegexScan() {
+        List<Route> routes = new RouteBuilder()
+                .when("^/api")
+                  .when("/garage_door")
+                    .get(handler("garage", true))
+                    .when("/action")
+                      .post(handler("action", true))
+                    .done()
+                  .done()
+                  .when("/sensors")
+                    .get(handler("sensors", true))
+                    .when("/([^/]+)")
+                      .get(handler("sensor", true))
+                    .done()
+                  .done()
+                  .when("/gar(.*)")
+                    .get(handler("partial", true))
+                  .done()
+                .done()
+                .when(".*").get(handler("static", false)).done()
+                .when(".*").any(handler("redirect", true)).done()
+                .build();
+        RouteTrie trie = new RouteTrie(routes);
+
+        assertCalls(trie, HttpMethod.GET, "/api/garage_door", "garage[]");
+        assertCalls(trie, HttpMethod.POST, "/api/garage_door/action", "action[]");
+        assertCalls(trie, HttpMethod.GET, "/api/sensors", "sensors[]");
+        assertCalls(trie, HttpMethod.GET, "/api/sensors/bath", "sensor[bath]");
+        assertCalls(trie, HttpMethod.GET, "/api/garbage", "partial[bage]");
+        assertCalls(trie, HttpMethod.GET, "/api/garage_door/", "partial[age_door/]");
+        assertCalls(trie, HttpMethod.GET, "/index.html", "static[]", "redirect[]");
+        assertCalls(trie, HttpMethod.POST, "/api/garage_door", "redirect[]");
+        assertCalls(trie, null, "/api/garage_door", "redirect[]");
+
+        // same result as testing every route in order
+        for (String target : new String[]{"/api/garage_door", "/api/sensors/x", "/", "/api", "/api/", "/x/y"}) {
+            for (HttpMethod method : new HttpMethod[]{HttpMethod.GET, HttpMethod.POST, HttpMethod.PUT}) {
+                List<String> expected = new ArrayList<>();
+                for (Route route : routes) {
+                    if (!committed && route.test(method, target)) {
+                        route.execute(request(target), response());
+                    }
+                }
+                expected.addAll(calls);
+                assertCalls(trie, method, target, expected.toArray(new String[0]));
+            }
+        }
+    }
+
+    @Test
+    public void testManySiblings() {
+        RouteBuilder builder = new RouteBuilder().when("^/api");
+        for (int i = 0; i < 100; i++) {
+            builder = builder.when("/r" + i).get(handler("r" + i, true)).done();
+        }
+        RouteTrie trie = new RouteTrie(builder.done().build());
+
+        for (int i = 0; i < 100; i++) {
+            assertCalls(trie, HttpMethod.GET, "/api/r" + i, "r" + i + "[]");
+        }
+        assertCalls(trie, HttpMethod.GET, "/api/r100");
+    }
+
+    private void assertCalls(RouteTrie trie, HttpMethod method, String target, String... expected) {
+        calls.clear();
+        committed = false;
+        trie.dispatch(method, target, request(target), response());
+        assertEquals(List.of(expected), calls, method + " " + target);
+        calls.clear();
+        committed = false;
+    }
+
+    private TriConsumer<HttpServletRequest, HttpServletResponse, List<String>> handler(String name, boolean commits) {
+        return (req, resp, fields) -> {
+            calls.add(name + fields);
+            committed = commits;
+        };
+    }
+
+    private HttpServletRequest request(String target) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> method.getName().equals("getRequestURI") ? target : null);
+    }
+
+    private HttpServletResponse response() {
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class},
+                (proxy, method, args) -> method.getName().equals("isCommitted") ? committed : null);
+    }
+}